@@ -0,0 +1,138 @@
+package io.jefrajames.loomdemo.manytasks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Simulates a JDBC connection pool, the usual bottleneck of blocking code moved
+ * to Virtual Threads: thousands of them queue for a few connections.
+ *
+ * Records how long tasks wait for a connection, how long they hold it and how
+ * many of them are waiting over time. The pool can be fair (first come, first
+ * served) and acquiring can time out, as with most real pools.
+ */
+public class ConnectionPool {
+
+    // Times are recorded in microseconds, up to 1 hour
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+    // Number of queue depth values displayed for a round
+    private static final int DEPTH_WIDTH = 20;
+
+    private final int size;
+    private final boolean fair;
+    private final long timeoutNanos;
+    private final Semaphore permits;
+
+    // Wait-free recorders, shared by all tasks
+    private final Recorder waitTimes = new Recorder(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+    private final Recorder holdTimes = new Recorder(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder timeouts = new LongAdder();
+
+    // Queue depth sampled during a round
+    private final List<Integer> depths = new ArrayList<>();
+    private Thread sampler;
+
+    // A zero timeout waits forever
+    public ConnectionPool(int size, boolean fair, long timeoutMillis) {
+        this.size = size;
+        this.fair = fair;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.permits = new Semaphore(size, fair);
+    }
+
+    // Get a connection, returning the time it has been acquired
+    public long acquire() throws InterruptedException, TimeoutException {
+        long started = System.nanoTime();
+        waiting.incrementAndGet();
+        try {
+            if (timeoutNanos == 0) {
+                permits.acquire();
+            } else if (!permits.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                timeouts.increment();
+                throw new TimeoutException(
+                        "No connection available after " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms");
+            }
+        } finally {
+            waiting.decrementAndGet();
+        }
+        long acquired = System.nanoTime();
+        waitTimes.recordValue(micros(acquired - started));
+        return acquired;
+    }
+
+    // Put the connection back into the pool
+    public void release(long acquired) {
+        holdTimes.recordValue(micros(System.nanoTime() - acquired));
+        permits.release();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static long micros(long nanos) {
+        return Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), HIGHEST_TRACKABLE_MICROS);
+    }
+
+    // Forget the previous round and sample the queue depth every periodMillis
+    void startRound(long periodMillis) {
+        waitTimes.reset();
+        holdTimes.reset();
+        timeouts.reset();
+        depths.clear();
+        sampler = Thread.ofVirtual().name("pool-sampler").start(() -> {
+            try {
+                while (true) {
+                    depths.add(waiting.get());
+                    Thread.sleep(periodMillis);
+                }
+            } catch (InterruptedException e) {
+                // end of the round
+            }
+        });
+    }
+
+    void endRound() throws InterruptedException {
+        sampler.interrupt();
+        sampler.join();
+
+        Histogram waits = waitTimes.getIntervalHistogram();
+        Histogram holds = holdTimes.getIntervalHistogram();
+        System.err.printf("Pool(%d, %s): %,d connections, %,d timeouts%n", size, fair ? "fair" : "unfair",
+                waits.getTotalCount(), timeouts.sum());
+        System.err.printf("  wait ms: p50=%.2f p90=%.2f p99=%.2f max=%.2f%n", millis(waits, 50), millis(waits, 90),
+                millis(waits, 99), waits.getMaxValue() / 1_000.0);
+        System.err.printf("  hold ms: p50=%.2f p90=%.2f p99=%.2f max=%.2f%n", millis(holds, 50), millis(holds, 90),
+                millis(holds, 99), holds.getMaxValue() / 1_000.0);
+        System.err.printf("  queue depth over time: %s%n", depthsOverTime());
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1_000.0;
+    }
+
+    // At most DEPTH_WIDTH values, keeping the highest of each group
+    private String depthsOverTime() {
+        int count = depths.size();
+        int width = Math.min(count, DEPTH_WIDTH);
+        StringJoiner joiner = new StringJoiner(" ");
+        for (int i = 0; i < width; i++) {
+            int from = i * count / width;
+            int to = (i + 1) * count / width;
+            int highest = depths.subList(from, to).stream().mapToInt(Integer::intValue).max().orElse(0);
+            joiner.add(String.format("%,d", highest));
+        }
+        return joiner.toString();
+    }
+}
@@ -1,9 +1,10 @@
 package io.jefrajames.loomdemo.manytasks;
 
-import java.security.SecureRandom;
-import java.util.Random;
-import java.util.concurrent.Semaphore;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.random.RandomGenerator;
 import java.util.stream.Stream;
 
 import org.openjdk.jmh.infra.Blackhole;
@@ -11,35 +12,82 @@ import org.openjdk.jmh.infra.Blackhole;
 /**
  * Simulates a database
  * 
+ * The latency of reads and writes, the connection pool size and the CPU cost
+ * of reads are set with system properties, for instance
+ * -Dfakedb.read-latency=lognormal:3:0.5 to reproduce the profile of a real
+ * database (see LatencyDistribution). Defaults are 1 to 5 ms reads, 2 ms
+ * writes, 50 connections and 1,000 CPU tokens.
+ *
+ * The connection pool is unfair and waits forever by default, see
+ * -Dfakedb.pool-fair and -Dfakedb.acquire-timeout-millis.
+ *
+ * Random numbers come from the generator of the calling task (see
+ * RandomSource).
  */
 public class FakeDataBase {
+
+    // An update written by a batch
+    public record Update(String key, Object value) {
+    }
+
     // Database connection pool size
-    static final int POOL_SIZE = 50;
+    static final int POOL_SIZE = Integer.getInteger("fakedb.pool-size", 50);
+
+    static final LatencyDistribution READ_LATENCY = LatencyDistribution
+            .parse(System.getProperty("fakedb.read-latency", "uniform:1:5"));
+    static final LatencyDistribution WRITE_LATENCY = LatencyDistribution
+            .parse(System.getProperty("fakedb.write-latency", "fixed:2"));
+
+    // Blackhole tokens consumed by a read, up to twice this value
+    static final int CPU_TOKENS = Integer.getInteger("fakedb.cpu-tokens", 1000);
 
-    private static final Random RANDOM = new SecureRandom();
-    private static final Semaphore POOL = new Semaphore(POOL_SIZE);
+    static final RandomSource RANDOM_SOURCE = RandomSource.configured();
+    static final ConnectionPool POOL = new ConnectionPool(POOL_SIZE, Boolean.getBoolean("fakedb.pool-fair"),
+            Long.getLong("fakedb.acquire-timeout-millis", 0));
 
     // A counter to keep track of the number of database operations
     private static LongAdder result = new LongAdder();
 
     // Simulate a database read
-    public static Object get(String key) throws InterruptedException {
-        // pretend to get a connection from a JDBC connection pool
-        POOL.acquire();
-
-        // pretend to talk to a remote server
-        Thread.sleep(1 + RANDOM.nextInt(5));
-
-        // pretend to get a result from the database
-        Object readData = Long.toHexString(key.hashCode() + RANDOM.nextLong()).repeat(5 + RANDOM.nextInt(5));
-
-        // Consume some CPU with semaphore
-        Blackhole.consumeCPU(1000 + readData.hashCode() % 1000);
+    public static Object get(String key) throws InterruptedException, TimeoutException {
+        return get(key, RANDOM_SOURCE.forTask());
+    }
 
-        // Put our thread back into the database.
-        POOL.release();
+    public static Object get(String key, RandomGenerator random) throws InterruptedException, TimeoutException {
+        // pretend to get a connection from a JDBC connection pool
+        long acquired = POOL.acquire();
+        try {
+            // pretend to talk to a remote server
+            Thread.sleep(Duration.ofNanos(READ_LATENCY.nextNanos(random)));
+
+            // pretend to get a result from the database
+            Object readData = Long.toHexString(key.hashCode() + random.nextLong()).repeat(5 + random.nextInt(5));
+
+            // Consume some CPU with semaphore
+            if (CPU_TOKENS > 0)
+                Blackhole.consumeCPU(CPU_TOKENS + readData.hashCode() % CPU_TOKENS);
+
+            return readData;
+        } finally {
+            // Put our thread back into the database.
+            POOL.release(acquired);
+        }
+    }
 
-        return readData;
+    // Simulate a batch of writes, one connection and one round trip for all of them
+    public static void putAll(List<Update> updates, RandomGenerator random)
+            throws InterruptedException, TimeoutException {
+        long acquired = POOL.acquire();
+        try {
+            Thread.sleep(Duration.ofNanos(WRITE_LATENCY.nextNanos(random)));
+
+            for (Update update : updates) {
+                result.add(update.key().hashCode());
+                result.add(update.value().hashCode());
+            }
+        } finally {
+            POOL.release(acquired);
+        }
     }
 
     public static long getResult() {
@@ -47,22 +95,28 @@ public class FakeDataBase {
     }
 
     // Simulate a database write
-    public static void put(String key, Object value) throws InterruptedException {
+    public static void put(String key, Object value) throws InterruptedException, TimeoutException {
+        put(key, value, RANDOM_SOURCE.forTask());
+    }
+
+    public static void put(String key, Object value, RandomGenerator random)
+            throws InterruptedException, TimeoutException {
         // pretend to marshal the update to the database
         long data = Stream.of(value.toString().toCharArray()).count();
 
         // pretend to get a connection from a JDBC connection pool
-        POOL.acquire();
-
-        // pretend to talk to a remote server
-        Thread.sleep(2 + RANDOM.nextInt((int) (data % 3)));
-
-        // pretend to care about the value
-        result.add(key.hashCode());
-        result.add(value.hashCode());
-        result.add(data);
-
-        // Put our thread back into the database.
-        POOL.release();
+        long acquired = POOL.acquire();
+        try {
+            // pretend to talk to a remote server
+            Thread.sleep(Duration.ofNanos(WRITE_LATENCY.nextNanos(random)));
+
+            // pretend to care about the value
+            result.add(key.hashCode());
+            result.add(value.hashCode());
+            result.add(data);
+        } finally {
+            // Put our thread back into the database.
+            POOL.release(acquired);
+        }
     }
 }
@@ -0,0 +1,91 @@
+package io.jefrajames.loomdemo.manytasks;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.random.RandomGenerator;
+
+/**
+ * Latency of a simulated remote call, defined by a specification such as:
+ *
+ * <ul>
+ * <li>fixed:2 always 2 ms</li>
+ * <li>uniform:1:5 between 1 and 5 ms</li>
+ * <li>lognormal:3:0.5 log-normal with a median of 3 ms and a sigma of 0.5, the
+ * usual shape of database response times with their long tail</li>
+ * <li>trace:latencies.txt latencies in ms recorded one per line, replayed at
+ * random</li>
+ * </ul>
+ */
+public interface LatencyDistribution {
+
+    // Next latency in nanoseconds
+    long nextNanos(RandomGenerator random);
+
+    static LatencyDistribution parse(String spec) {
+        String[] parts = spec.split(":");
+        return switch (parts[0]) {
+            case "fixed" -> new Fixed(millis(parts[1]));
+            case "uniform" -> new Uniform(millis(parts[1]), millis(parts[2]));
+            case "lognormal" -> new LogNormal(millis(parts[1]), Double.parseDouble(parts[2]));
+            case "trace" -> Trace.load(Path.of(spec.substring("trace:".length())));
+            default -> throw new IllegalArgumentException("Unknown latency distribution: " + spec);
+        };
+    }
+
+    private static long millis(String value) {
+        return (long) (Double.parseDouble(value) * TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    record Fixed(long nanos) implements LatencyDistribution {
+        @Override
+        public long nextNanos(RandomGenerator random) {
+            return nanos;
+        }
+    }
+
+    record Uniform(long minNanos, long maxNanos) implements LatencyDistribution {
+        @Override
+        public long nextNanos(RandomGenerator random) {
+            return minNanos + (long) (random.nextDouble() * (maxNanos - minNanos));
+        }
+    }
+
+    record LogNormal(long medianNanos, double sigma) implements LatencyDistribution {
+        @Override
+        public long nextNanos(RandomGenerator random) {
+            return (long) (medianNanos * Math.exp(sigma * random.nextGaussian()));
+        }
+    }
+
+    record Trace(long[] nanos, Path file) implements LatencyDistribution {
+
+        static Trace load(Path file) {
+            try {
+                long[] nanos = Files.readAllLines(file).stream()
+                        .map(String::strip)
+                        .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                        .mapToLong(LatencyDistribution::millis)
+                        .toArray();
+                if (nanos.length == 0) {
+                    throw new IllegalArgumentException("No latency in trace " + file);
+                }
+                return new Trace(nanos, file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public long nextNanos(RandomGenerator random) {
+            return nanos[random.nextInt(nanos.length)];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Trace[%,d latencies from %s]", nanos.length, file);
+        }
+    }
+}
@@ -2,17 +2,38 @@ package io.jefrajames.loomdemo.manytasks;
 
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
-import java.security.SecureRandom;
-import java.util.Random;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InaccessibleObjectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.random.RandomGenerator;
 
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.openjdk.jmh.infra.Blackhole;
 
+import jdk.incubator.concurrent.StructuredTaskScope;
+
 /**
- * Run a number of tasks simulating database access in two modes:
- * with pooled Platform Threads and with Virtual Threads.
+ * Run a number of tasks simulating database access with several scheduling
+ * strategies: pooled Platform Threads, work stealing, and Virtual Threads
+ * started directly, from an executor, on custom carriers or in a
+ * StructuredTaskScope.
  */
 public class ManyTasks {
 
@@ -21,46 +42,190 @@ public class ManyTasks {
     private static final int THREAD_POOL_SIZE = 100;
     private static final int MEGA_BYTE = 1024 * 1024;
 
-    private static final Random RANDOM = new SecureRandom();
+    // Parallelism of the custom carrier pool, the default scheduler using one carrier per core
+    private static final int CARRIER_PARALLELISM = Integer.getInteger("manytasks.carriers",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
+    // Period of the connection pool queue depth samples
+    private static final int POOL_SAMPLE_MILLIS = Integer.getInteger("manytasks.pool-sample-millis", 100);
+
+    // Write-behind stage: number of flusher threads, maximum updates per batch and maximum wait of an update
+    private static final int FLUSHERS = Integer.getInteger("manytasks.flushers", 2);
+    private static final int BATCH_SIZE = Integer.getInteger("manytasks.batch-size", 50);
+    private static final int LINGER_MILLIS = Integer.getInteger("manytasks.linger-millis", 5);
+
+    // Keys of the database reads: unique by default, else drawn from KEYS keys with a Zipf distribution
+    private static final int KEYS = Integer.getInteger("manytasks.keys", 0);
+    private static final double KEY_SKEW = Double.parseDouble(System.getProperty("manytasks.key-skew", "1.0"));
+    private static final double[] KEY_CDF = keyCdf(KEYS, KEY_SKEW);
+
+    // Read-through cache: maximum entries and time to live
+    private static final int CACHE_SIZE = Integer.getInteger("manytasks.cache-size", 1_000);
+    private static final int CACHE_TTL_MILLIS = Integer.getInteger("manytasks.cache-ttl-millis", 1_000);
+
+    // Open model: RATE tasks per second submitted for DURATION_SECONDS, instead of TASK_COUNT tasks at once
+    private static final int RATE = Integer.getInteger("manytasks.rate", 0);
+    private static final int DURATION_SECONDS = Integer.getInteger("manytasks.duration-seconds", 30);
+    private static final int ROUND_TASKS = RATE > 0 ? RATE * DURATION_SECONDS : TASK_COUNT;
+
+    // Open model: time from the scheduled start of a task to its actual start, then to its end, in microseconds
+    private static final Recorder QUEUEING_DELAY = new Recorder(3);
+    private static final Recorder EXECUTION_LATENCY = new Recorder(3);
+
+    // Time to run a task, from its creation to its completion, in microseconds
+    private static final Recorder TASK_LATENCY = new Recorder(3);
+
+    // Time to write an update, from the task call to the end of the database write, in microseconds
+    private static final Recorder WRITE_LATENCY = new Recorder(3);
+
+    // A way to run tasks, returning the elapsed time in nanoseconds
+    @FunctionalInterface
+    interface Strategy {
+        long run(int tasks) throws Exception;
+    }
+
+    // Measures of a round
+    record Round(String name, long elapsedNanos, long peakHeap, double cpuPercent, int peakThreads,
+            double taskP99Millis, double writeP99Millis) {
+    }
+
+    // Results of the two reads of a task
+    private record Reads(Object userdata, Object data) {
+    }
+
+    // How a task accesses the db: updates go through writes when not null instead of a write per task, reads
+    // go through cache when not null, and both reads are forked in a StructuredTaskScope when fanOut instead of
+    // one after the other
+    record TaskOptions(RandomSource source, WriteBehind writes, ReadThroughCache cache, boolean fanOut) {
+
+        static final TaskOptions DEFAULT = new TaskOptions(FakeDataBase.RANDOM_SOURCE, null, null, false);
+
+        TaskOptions withSource(RandomSource source) {
+            return new TaskOptions(source, writes, cache, fanOut);
+        }
+
+        TaskOptions withWrites(WriteBehind writes) {
+            return new TaskOptions(source, writes, cache, fanOut);
+        }
+
+        TaskOptions withCache(ReadThroughCache cache) {
+            return new TaskOptions(source, writes, cache, fanOut);
+        }
+
+        TaskOptions withFanOut() {
+            return new TaskOptions(source, writes, cache, true);
+        }
+    }
 
     // A task that simulates db access (2 reads, 1 write) and then signals completion
-    static Runnable newTask(CountDownLatch latch) {
-        long id = RANDOM.nextLong();
-        String task = Integer.toHexString(RANDOM.nextInt());
+    static Runnable newTask(CountDownLatch latch, TaskOptions options) {
+        long created = System.nanoTime();
+        ReadThroughCache cache = options.cache();
+        WriteBehind writes = options.writes();
+        RandomGenerator random = options.source().forTask();
+        long id = KEYS > 0 ? nextKey(random) : random.nextLong();
+        String task = Integer.toHexString(KEYS > 0 ? nextKey(random) : random.nextInt());
+        // user and app data keys are drawn from the same set: prefixes keep them apart in the cache
+        String user = "user:" + id;
+        String app = "app:" + task;
         return () -> {
             try {
+                // the app data is read even if the authentication fails
+                Reads reads = options.fanOut() ? readConcurrently(cache, random, user, app) : null;
+
                 // pretend to authenticate the user
-                Object userdata = FakeDataBase.get(Long.toString(id));
+                Object userdata = reads != null ? reads.userdata() : read(cache, random, user);
 
                 // small chance auth fails.
                 if (userdata.toString().startsWith("6666"))
                     return;
 
                 // pretend to get some app data
-                Object data = FakeDataBase.get(task);
+                Object data = reads != null ? reads.data() : read(cache, random, app);
 
                 // pretend to process the data
                 Blackhole.consumeCPU(1000 + data.hashCode() % 1000);
 
                 // pretend to mutate some app data
-                FakeDataBase.put(task, Long.toHexString(data.hashCode() + id).repeat(1 + Math.abs((int) (id % 10))));
+                String value = Long.toHexString(data.hashCode() + id).repeat(1 + Math.abs((int) (id % 10)));
+                if (writes == null) {
+                    long started = System.nanoTime();
+                    FakeDataBase.put(task, value, random);
+                    WRITE_LATENCY.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started));
+                } else {
+                    writes.put(task, value);
+                }
             } catch (InterruptedException e) {
                 e.printStackTrace();
+            } catch (TimeoutException e) {
+                // counted by the connection pool
             } finally {
+                TASK_LATENCY.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - created));
                 // signal completion
                 latch.countDown();
             }
         };
     }
 
+    private static Object read(ReadThroughCache cache, RandomGenerator random, String key)
+            throws InterruptedException, TimeoutException {
+        if (cache == null)
+            return FakeDataBase.get(key, random);
+        return cache.get(key, k -> FakeDataBase.get(k, random));
+    }
+
+    // Fork both reads, failing as soon as one of them fails
+    private static Reads readConcurrently(ReadThroughCache cache, RandomGenerator random, String user, String app)
+            throws InterruptedException, TimeoutException {
+        // forks run at the same time, each one needs its own generator
+        RandomGenerator userRandom = RandomSource.forFork(random);
+        RandomGenerator appRandom = RandomSource.forFork(random);
+        try (StructuredTaskScope.ShutdownOnFailure scope = new StructuredTaskScope.ShutdownOnFailure()) {
+            Future<Object> userdata = scope.fork(() -> read(cache, userRandom, user));
+            Future<Object> data = scope.fork(() -> read(cache, appRandom, app));
+            scope.join();
+            scope.throwIfFailed();
+            return new Reads(userdata.resultNow(), data.resultNow());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException timeout)
+                throw timeout;
+            if (e.getCause() instanceof InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                throw interrupted;
+            }
+            if (e.getCause() instanceof RuntimeException failure)
+                throw failure;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // Cumulative probabilities of the keys, the key of rank k being drawn with a probability proportional to 1/k^skew
+    private static double[] keyCdf(int keys, double skew) {
+        double[] cdf = new double[keys];
+        double sum = 0;
+        for (int k = 0; k < keys; k++) {
+            sum += 1 / Math.pow(k + 1, skew);
+            cdf[k] = sum;
+        }
+        for (int k = 0; k < keys; k++) {
+            cdf[k] /= sum;
+        }
+        return cdf;
+    }
+
+    private static int nextKey(RandomGenerator random) {
+        int index = Arrays.binarySearch(KEY_CDF, random.nextDouble());
+        return Math.min(index >= 0 ? index : -index - 1, KEY_CDF.length - 1);
+    }
+
     // Warmup the JVM
     private static void warmup(int tasks) throws InterruptedException {
 
         System.err.printf("Warming up with %,d tasks...", tasks);
         CountDownLatch warmup = new CountDownLatch(tasks * 2);
         for (int i = 0; i < tasks; i++) {
-            Thread.ofPlatform().start(newTask(warmup));
-            Thread.ofPlatform().start(newTask(warmup));
+            Thread.ofPlatform().start(newTask(warmup, TaskOptions.DEFAULT));
+            Thread.ofPlatform().start(newTask(warmup, TaskOptions.DEFAULT));
         }
         warmup.await();
         System.err.println(" done!");
@@ -79,7 +244,7 @@ public class ManyTasks {
             long started = System.nanoTime();
             // run tasks with a thread pool
             for (int i = 0; i < tasks; i++)
-                threadPool.execute(newTask(latch));
+                threadPool.execute(newTask(latch, TaskOptions.DEFAULT));
             // wait for completion
             latch.await();
             //
@@ -92,18 +257,256 @@ public class ManyTasks {
 
     // Run tasks with virtual threads
     private static long testVThreads(int tasks) throws Exception {
+        return testVThreads(tasks, FakeDataBase.RANDOM_SOURCE);
+    }
+
+    private static long testVThreads(int tasks, RandomSource source) throws Exception {
 
         CountDownLatch latch = new CountDownLatch(tasks);
 
         long started = System.nanoTime();
         // run tasks with virtual threads
         for (int i = 0; i < tasks; i++)
-            Thread.ofVirtual().start(newTask(latch));
+            Thread.ofVirtual().start(newTask(latch, TaskOptions.DEFAULT.withSource(source)));
         // wait for completion
         latch.await();
         return System.nanoTime() - started;
     }
 
+    // Run tasks with an executor, closed at the end
+    private static long testExecutor(ExecutorService executor, int tasks) throws Exception {
+
+        CountDownLatch latch = new CountDownLatch(tasks);
+
+        try (executor) {
+            long started = System.nanoTime();
+            for (int i = 0; i < tasks; i++)
+                executor.execute(newTask(latch, TaskOptions.DEFAULT));
+            latch.await();
+            return System.nanoTime() - started;
+        }
+    }
+
+    // Run tasks with virtual threads scheduled on a ForkJoinPool of our own
+    private static long testCustomCarriers(int tasks) throws Exception {
+
+        CountDownLatch latch = new CountDownLatch(tasks);
+        ForkJoinPool carriers = new ForkJoinPool(CARRIER_PARALLELISM, ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                null, true);
+        Thread.Builder builder = virtualThreadBuilder(carriers);
+
+        try {
+            long started = System.nanoTime();
+            for (int i = 0; i < tasks; i++)
+                builder.start(newTask(latch, TaskOptions.DEFAULT));
+            latch.await();
+            return System.nanoTime() - started;
+        } finally {
+            carriers.shutdown();
+        }
+    }
+
+    // The scheduler of Virtual Threads is not configurable yet: the builder taking one is package private.
+    // Java option: --add-opens java.base/java.lang=ALL-UNNAMED
+    private static Thread.Builder virtualThreadBuilder(Executor scheduler) throws ReflectiveOperationException {
+        Class<?> builderClass = Class.forName("java.lang.ThreadBuilders$VirtualThreadBuilder");
+        Constructor<?> constructor = builderClass.getDeclaredConstructor(Executor.class);
+        constructor.setAccessible(true);
+        return (Thread.Builder) constructor.newInstance(scheduler);
+    }
+
+    // The custom carriers round needs java.lang to be opened
+    private static boolean customCarriersAvailable() {
+        try {
+            virtualThreadBuilder(Runnable::run);
+            return true;
+        } catch (ReflectiveOperationException | InaccessibleObjectException e) {
+            System.err.printf("%n%nSkipping the custom carriers round: %s%n", e);
+            return false;
+        }
+    }
+
+    // Run tasks as subtasks of a StructuredTaskScope
+    private static long testStructuredTaskScope(int tasks) throws Exception {
+
+        CountDownLatch latch = new CountDownLatch(tasks);
+
+        try (StructuredTaskScope<Object> scope = new StructuredTaskScope<>()) {
+            long started = System.nanoTime();
+            for (int i = 0; i < tasks; i++) {
+                Runnable task = newTask(latch, TaskOptions.DEFAULT);
+                scope.fork(() -> {
+                    task.run();
+                    return null;
+                });
+            }
+            scope.join();
+            return System.nanoTime() - started;
+        }
+    }
+
+    // Submit tasks at RATE per second, each one being scheduled at a fixed time so that a late start counts as queueing
+    private static long testOpen(Executor executor, int tasks) throws Exception {
+
+        CountDownLatch latch = new CountDownLatch(tasks);
+        CountDownLatch recorded = new CountDownLatch(tasks);
+        LongAdder failed = new LongAdder();
+        long periodNanos = TimeUnit.SECONDS.toNanos(1) / RATE;
+
+        long started = System.nanoTime();
+        for (int i = 0; i < tasks; i++) {
+            long scheduled = started + i * periodNanos;
+            long early;
+            while ((early = scheduled - System.nanoTime()) > 0)
+                LockSupport.parkNanos(early);
+
+            Runnable task = newTask(latch, TaskOptions.DEFAULT);
+            executor.execute(() -> {
+                long begin = System.nanoTime();
+                QUEUEING_DELAY.recordValue(TimeUnit.NANOSECONDS.toMicros(begin - scheduled));
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    failed.increment();
+                } finally {
+                    EXECUTION_LATENCY.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin));
+                    recorded.countDown();
+                }
+            });
+        }
+        recorded.await();
+        long elapsed = System.nanoTime() - started;
+        if (failed.sum() > 0)
+            System.err.printf("%,d tasks failed%n", failed.sum());
+        return elapsed;
+    }
+
+    // Open model with a thread pool
+    private static long testOpenThreadPool(int tasks) throws Exception {
+
+        QueuedThreadPool threadPool = new QueuedThreadPool(THREAD_POOL_SIZE, THREAD_POOL_SIZE, -1, 0, null, null);
+        threadPool.start();
+        try {
+            return testOpen(threadPool, tasks);
+        } finally {
+            threadPool.stop();
+        }
+    }
+
+    // Run tasks with virtual threads, each one reading concurrently
+    private static long testFanOut(int tasks) throws Exception {
+
+        CountDownLatch latch = new CountDownLatch(tasks);
+
+        long started = System.nanoTime();
+        for (int i = 0; i < tasks; i++)
+            Thread.ofVirtual().start(newTask(latch, TaskOptions.DEFAULT.withFanOut()));
+        latch.await();
+        return System.nanoTime() - started;
+    }
+
+    // Run tasks with virtual threads, their updates being written in batches
+    private static long testWriteBehind(int tasks) throws Exception {
+
+        CountDownLatch latch = new CountDownLatch(tasks);
+        WriteBehind writes = new WriteBehind(FLUSHERS, BATCH_SIZE, LINGER_MILLIS, WRITE_LATENCY);
+
+        long started = System.nanoTime();
+        try (writes) {
+            for (int i = 0; i < tasks; i++)
+                Thread.ofVirtual().start(newTask(latch, TaskOptions.DEFAULT.withWrites(writes)));
+            latch.await();
+        }
+        // the last updates are written when closing
+        return System.nanoTime() - started;
+    }
+
+    // Run tasks with virtual threads, their reads going through a cache
+    private static long testReadThroughCache(int tasks) throws Exception {
+
+        CountDownLatch latch = new CountDownLatch(tasks);
+        ReadThroughCache cache = new ReadThroughCache(CACHE_SIZE, CACHE_TTL_MILLIS);
+
+        long started = System.nanoTime();
+        for (int i = 0; i < tasks; i++)
+            Thread.ofVirtual().start(newTask(latch, TaskOptions.DEFAULT.withCache(cache)));
+        latch.await();
+        long elapsed = System.nanoTime() - started;
+
+        cache.printStats();
+        return elapsed;
+    }
+
+    // Run a strategy, measuring its heap, CPU and threads
+    private static Round round(String name, Strategy strategy) throws Exception {
+
+        System.gc();
+
+        System.err.printf("%n%nRound with %s%n", name);
+        printMemory("Before testing");
+
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+        long cpuBefore = processCpuNanos();
+
+        long elapsed;
+        TASK_LATENCY.reset();
+        WRITE_LATENCY.reset();
+        QUEUEING_DELAY.reset();
+        EXECUTION_LATENCY.reset();
+        FakeDataBase.POOL.startRound(POOL_SAMPLE_MILLIS);
+        try {
+            elapsed = strategy.run(ROUND_TASKS);
+        } finally {
+            FakeDataBase.POOL.endRound();
+        }
+
+        double cpuPercent = 100.0 * (processCpuNanos() - cpuBefore) / elapsed
+                / Runtime.getRuntime().availableProcessors();
+        // upper bound, the pools may not peak at the same time
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+
+        Histogram latencies = printPercentiles("Task", TASK_LATENCY);
+        Histogram writes = printPercentiles("Write", WRITE_LATENCY);
+        if (RATE > 0) {
+            printPercentiles("Queueing", QUEUEING_DELAY);
+            printPercentiles("Execution", EXECUTION_LATENCY);
+        }
+
+        System.err.printf("%,d tasks run in %,d ms%n", ROUND_TASKS, TimeUnit.NANOSECONDS.toMillis(elapsed));
+        printMemory("After testing");
+
+        return new Round(name, elapsed, peakHeap, cpuPercent,
+                ManagementFactory.getThreadMXBean().getPeakThreadCount(), latencies.getValueAtPercentile(99) / 1_000.0,
+                writes.getValueAtPercentile(99) / 1_000.0);
+    }
+
+    // Latencies recorded since the previous call, in milliseconds
+    private static Histogram printPercentiles(String name, Recorder recorder) {
+        Histogram histogram = recorder.getIntervalHistogram();
+        System.err.printf("%s ms: p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f%n", name,
+                histogram.getValueAtPercentile(50) / 1_000.0, histogram.getValueAtPercentile(90) / 1_000.0,
+                histogram.getValueAtPercentile(99) / 1_000.0, histogram.getValueAtPercentile(99.9) / 1_000.0,
+                histogram.getMaxValue() / 1_000.0);
+        return histogram;
+    }
+
+    private static long processCpuNanos() {
+        if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+            return os.getProcessCpuTime();
+        }
+        return 0;
+    }
+
     private static void printMemory(String msg) {
         MemoryMXBean mbean = ManagementFactory.getMemoryMXBean();
         System.err.printf("%s, memory: total=%,d MB, used=%,d MB, heap=%,d MB, non heap=%,d MB%n",
@@ -115,30 +518,69 @@ public class ManyTasks {
 
     }
 
-    // Java option: --enable-preview
+    // CPU is the share of all cores used by the process, peak threads the platform threads (carriers included)
+    private static void printMatrix(List<Round> rounds) {
+        System.err.printf("%n%-36s %10s %12s %14s %7s %13s %13s %13s%n", "Strategy", "Wall ms", "Tasks/s",
+                "Peak heap MB", "CPU %", "Peak threads", "Task p99 ms", "Write p99 ms");
+        for (Round round : rounds) {
+            System.err.printf("%-36s %,10d %,12.0f %,14d %7.1f %,13d %13.2f %13.2f%n", round.name(),
+                    TimeUnit.NANOSECONDS.toMillis(round.elapsedNanos()),
+                    ROUND_TASKS / (round.elapsedNanos() / 1e9), round.peakHeap() / MEGA_BYTE, round.cpuPercent(),
+                    round.peakThreads(), round.taskP99Millis(), round.writeP99Millis());
+        }
+    }
+
+    // Java options: --enable-preview --add-modules jdk.incubator.concurrent
+    // and --add-opens java.base/java.lang=ALL-UNNAMED for custom carriers
     public static void main(String... args) throws Exception {
 
-        System.err.printf("Running %,d tasks with database connexion pool size %d%n", TASK_COUNT,
-                FakeDataBase.POOL_SIZE);
+        if (RATE > 0)
+            System.err.printf("Submitting %,d tasks/s for %d s with database connexion pool size %d%n", RATE,
+                    DURATION_SECONDS, FakeDataBase.POOL_SIZE);
+        else
+            System.err.printf("Running %,d tasks with database connexion pool size %d%n", TASK_COUNT,
+                    FakeDataBase.POOL_SIZE);
+        if (KEYS > 0)
+            System.err.printf("Reading %,d keys with a Zipf skew of %.2f%n", KEYS, KEY_SKEW);
+        System.err.printf("Database read latency %s, write latency %s, CPU tokens %,d, random source %s%n",
+                FakeDataBase.READ_LATENCY, FakeDataBase.WRITE_LATENCY, FakeDataBase.CPU_TOKENS,
+                FakeDataBase.RANDOM_SOURCE);
 
 
         warmup(WARMUP_SIZE);
 
-        System.gc();
-
-        System.err.println("First round with Pooled Platform Threads");
-        printMemory("Before testing");
-        System.err.printf("%,d tasks run in %,d ms%n", TASK_COUNT,
-                TimeUnit.NANOSECONDS.toMillis(testThreadPool(TASK_COUNT)));
-        printMemory("After testing");
-
-        System.gc();
+        List<Round> rounds = new ArrayList<>();
+        if (RATE > 0) {
+            // how the thread pool queues versus how Virtual Threads pile up on the connection pool
+            rounds.add(round(String.format("Open Jetty QueuedThreadPool(%d)", THREAD_POOL_SIZE),
+                    ManyTasks::testOpenThreadPool));
+            rounds.add(round("Open Virtual Threads", tasks -> testOpen(task -> Thread.ofVirtual().start(task), tasks)));
+        } else {
+            rounds.add(round(String.format("Jetty QueuedThreadPool(%d)", THREAD_POOL_SIZE), ManyTasks::testThreadPool));
+            rounds.add(round(String.format("Fixed thread pool(%d)", THREAD_POOL_SIZE),
+                    tasks -> testExecutor(Executors.newFixedThreadPool(THREAD_POOL_SIZE), tasks)));
+            rounds.add(round(String.format("Work stealing pool(%d)", THREAD_POOL_SIZE),
+                    tasks -> testExecutor(Executors.newWorkStealingPool(THREAD_POOL_SIZE), tasks)));
+            rounds.add(round("Virtual Threads", ManyTasks::testVThreads));
+            rounds.add(round("Virtual thread per task executor",
+                    tasks -> testExecutor(Executors.newVirtualThreadPerTaskExecutor(), tasks)));
+            if (customCarriersAvailable())
+                rounds.add(round(String.format("Virtual Threads on %d carriers", CARRIER_PARALLELISM),
+                        ManyTasks::testCustomCarriers));
+            rounds.add(round("StructuredTaskScope", ManyTasks::testStructuredTaskScope));
+            rounds.add(round("Virtual Threads, fan-out reads", ManyTasks::testFanOut));
+            rounds.add(round(String.format("Virtual Threads, write-behind(%d)", BATCH_SIZE),
+                    ManyTasks::testWriteBehind));
+            rounds.add(round(String.format("Virtual Threads, cache(%d)", CACHE_SIZE), ManyTasks::testReadThroughCache));
+            // The other random sources, to show how much of the time is spent contending on random numbers
+            for (RandomSource source : RandomSource.values()) {
+                if (source != FakeDataBase.RANDOM_SOURCE)
+                    rounds.add(round(String.format("Virtual Threads, %s random", source),
+                            tasks -> testVThreads(tasks, source)));
+            }
+        }
 
-        System.err.println("\n\nSecond round with Virtual Threads");
-        printMemory("Before testing");
-        System.err.printf("%,d tasks run in %,d ms%n", TASK_COUNT,
-                TimeUnit.NANOSECONDS.toMillis(testVThreads(TASK_COUNT)));
-        printMemory("After testing");
+        printMatrix(rounds);
 
         System.err.println("All done!");
         // System.err.println(FakeDataBase.getResult());
@@ -0,0 +1,94 @@
+package io.jefrajames.loomdemo.manytasks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark of the ManyTasks workload: the time to run taskCount tasks
+ * with a pool of poolSize Platform Threads or with one Virtual Thread per task.
+ *
+ * Random numbers come from the SECURE source unless overridden, for instance
+ * with -p randomSource=SECURE,SPLITTABLE.
+ *
+ * Build with mvn package, then run:
+ * java --enable-preview --add-modules jdk.incubator.concurrent -jar target/benchmarks.jar
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 2, jvmArgsAppend = { "--enable-preview", "--add-modules", "jdk.incubator.concurrent" })
+public class ManyTasksBenchmark {
+
+    // Parameters shared by both kinds of threads
+    @State(Scope.Benchmark)
+    public abstract static class Tasks {
+
+        @Param({ "10000", "100000" })
+        int taskCount;
+
+        @Param({ "SECURE" })
+        RandomSource randomSource;
+
+        ExecutorService executor;
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            executor.close();
+        }
+    }
+
+    public static class PlatformThreads extends Tasks {
+
+        @Param({ "50", "100", "200" })
+        int poolSize;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            executor = Executors.newFixedThreadPool(poolSize);
+        }
+    }
+
+    public static class VirtualThreads extends Tasks {
+
+        @Setup(Level.Trial)
+        public void setup() {
+            executor = Executors.newVirtualThreadPerTaskExecutor();
+        }
+    }
+
+    @Benchmark
+    public CountDownLatch platformThreads(PlatformThreads tasks) throws InterruptedException {
+        return runTasks(tasks);
+    }
+
+    @Benchmark
+    public CountDownLatch virtualThreads(VirtualThreads tasks) throws InterruptedException {
+        return runTasks(tasks);
+    }
+
+    private static CountDownLatch runTasks(Tasks tasks) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(tasks.taskCount);
+        ManyTasks.TaskOptions options = ManyTasks.TaskOptions.DEFAULT.withSource(tasks.randomSource);
+        for (int i = 0; i < tasks.taskCount; i++)
+            tasks.executor.execute(ManyTasks.newTask(latch, options));
+        latch.await();
+        return latch;
+    }
+}
@@ -0,0 +1,56 @@
+package io.jefrajames.loomdemo.manytasks;
+
+import java.security.SecureRandom;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.random.RandomGenerator;
+
+/**
+ * Where tasks get their random numbers from.
+ *
+ * SECURE shares one SecureRandom between all threads: it is synchronized, so
+ * that 100,000 Virtual Threads contend (and may pin their carrier) on the same
+ * monitor and the benchmark partly measures this contention. THREAD_LOCAL and
+ * SPLITTABLE do not contend, SPLITTABLE giving each task its own generator
+ * split from a root seeded with -Dfakedb.seed, so that runs are reproducible.
+ */
+public enum RandomSource {
+
+    SECURE, THREAD_LOCAL, SPLITTABLE;
+
+    private static final RandomGenerator SHARED = new SecureRandom();
+    private static final RandomGenerator CURRENT_THREAD = () -> ThreadLocalRandom.current().nextLong();
+
+    // Splitting is not thread safe (no synchronized to avoid pinning Virtual Threads)
+    private static final ReentrantLock LOCK = new ReentrantLock();
+    private static final SplittableRandom ROOT = new SplittableRandom(Long.getLong("fakedb.seed", 42));
+
+    // Set with -Dfakedb.random=secure|thread-local|splittable
+    static RandomSource configured() {
+        return valueOf(System.getProperty("fakedb.random", "secure").toUpperCase().replace('-', '_'));
+    }
+
+    // Generator of a task, to be created by the thread submitting the task
+    RandomGenerator forTask() {
+        return switch (this) {
+            case SECURE -> SHARED;
+            case THREAD_LOCAL -> CURRENT_THREAD;
+            case SPLITTABLE -> split();
+        };
+    }
+
+    // Generator of a subtask forked by a task, to be created by the task itself
+    static RandomGenerator forFork(RandomGenerator random) {
+        return random instanceof SplittableRandom splittable ? splittable.split() : random;
+    }
+
+    private static RandomGenerator split() {
+        LOCK.lock();
+        try {
+            return ROOT.split();
+        } finally {
+            LOCK.unlock();
+        }
+    }
+}
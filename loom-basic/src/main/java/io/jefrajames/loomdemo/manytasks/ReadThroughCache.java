@@ -0,0 +1,135 @@
+package io.jefrajames.loomdemo.manytasks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Read-through cache in front of FakeDataBase.get, bounded in size with LRU
+ * eviction and a time to live.
+ *
+ * Concurrent misses on the same key are coalesced: the first task loads the
+ * value while the others wait for it, so that a popular key costs a single
+ * connection however many Virtual Threads ask for it at the same time.
+ */
+public class ReadThroughCache {
+
+    @FunctionalInterface
+    public interface Loader {
+        Object load(String key) throws InterruptedException, TimeoutException;
+    }
+
+    private record Cached(Object value, long expires) {
+    }
+
+    private final int maxSize;
+    private final long ttlNanos;
+
+    // Access ordered, guarded by lock (no synchronized to avoid pinning Virtual Threads)
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Cached> entries;
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ReadThroughCache(int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                if (size() > ReadThroughCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public Object get(String key, Loader loader) throws InterruptedException, TimeoutException {
+        Cached entry = cached(key);
+        if (entry != null) {
+            hits.increment();
+            return entry.value();
+        }
+
+        CompletableFuture<Object> load = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = loading.putIfAbsent(key, load);
+        if (inFlight != null) {
+            coalesced.increment();
+            return await(inFlight);
+        }
+
+        try {
+            loads.increment();
+            Object value = loader.load(key);
+            store(key, value);
+            load.complete(value);
+            return value;
+        } catch (Throwable t) {
+            // any failure, Errors included, must release the tasks waiting for this load
+            load.completeExceptionally(t);
+            throw t;
+        } finally {
+            loading.remove(key, load);
+        }
+    }
+
+    private Cached cached(String key) {
+        lock.lock();
+        try {
+            Cached entry = entries.get(key);
+            if (entry != null && entry.expires() - System.nanoTime() < 0) {
+                entries.remove(key);
+                return null;
+            }
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void store(String key, Object value) {
+        lock.lock();
+        try {
+            entries.put(key, new Cached(value, System.nanoTime() + ttlNanos));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Wait for the load of another task, failing as it did
+    private static Object await(CompletableFuture<Object> load) throws InterruptedException, TimeoutException {
+        try {
+            return load.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException timeout)
+                throw timeout;
+            if (e.getCause() instanceof InterruptedException interrupted)
+                throw interrupted;
+            if (e.getCause() instanceof Error error)
+                throw error;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // Every hit and every coalesced request saves a connection
+    void printStats() {
+        long requests = hits.sum() + loads.sum() + coalesced.sum();
+        System.err.printf("Cache(%,d, TTL %,d ms): hit ratio %.1f%%, %,d hits, %,d loads, %,d coalesced, "
+                + "%,d saved connections, %,d evictions%n", maxSize, TimeUnit.NANOSECONDS.toMillis(ttlNanos),
+                100.0 * (hits.sum() + coalesced.sum()) / Math.max(1, requests), hits.sum(), loads.sum(),
+                coalesced.sum(), hits.sum() + coalesced.sum(), evictions.sum());
+    }
+}
@@ -0,0 +1,124 @@
+package io.jefrajames.loomdemo.manytasks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.random.RandomGenerator;
+
+import org.HdrHistogram.Recorder;
+
+/**
+ * Write-behind stage of FakeDataBase: tasks enqueue their updates without
+ * waiting, and a few flusher Virtual Threads write them in batches, one
+ * connection and one round trip per batch.
+ *
+ * A flusher writes a batch as soon as it is full, or when the oldest update
+ * has waited for the linger time. The write latency recorded is the time from
+ * enqueuing an update to the end of its batch.
+ */
+public class WriteBehind implements AutoCloseable {
+
+    private record Pending(FakeDataBase.Update update, long enqueued) {
+    }
+
+    // Park time of an idle flusher when there is no linger time
+    private static final long IDLE_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final int batchSize;
+    private final long lingerNanos;
+    private final Recorder writeLatency;
+
+    // Lock-free, tasks never wait to enqueue
+    private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final Thread[] flushers;
+    private volatile boolean closed;
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder lost = new LongAdder();
+
+    public WriteBehind(int flusherCount, int batchSize, long lingerMillis, Recorder writeLatency) {
+        this.batchSize = Math.max(1, batchSize);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.writeLatency = writeLatency;
+        this.flushers = new Thread[Math.max(1, flusherCount)];
+        for (int i = 0; i < flushers.length; i++) {
+            RandomGenerator random = FakeDataBase.RANDOM_SOURCE.forTask();
+            flushers[i] = Thread.ofVirtual().name("flusher-" + i).start(() -> flush(random));
+        }
+    }
+
+    // Called by tasks
+    public void put(String key, Object value) {
+        queue.offer(new Pending(new FakeDataBase.Update(key, value), System.nanoTime()));
+    }
+
+    private void flush(RandomGenerator random) {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        List<FakeDataBase.Update> updates = new ArrayList<>(batchSize);
+        while (!closed || !queue.isEmpty() || !batch.isEmpty()) {
+            // wait for a full batch or for the oldest update to linger enough
+            Pending pending;
+            while (batch.size() < batchSize && (pending = queue.poll()) != null) {
+                batch.add(pending);
+            }
+            if (batch.isEmpty() || (batch.size() < batchSize && !closed && lingering(batch.get(0)) > 0)) {
+                LockSupport.parkNanos(batch.isEmpty() ? Math.max(lingerNanos, IDLE_NANOS) : lingering(batch.get(0)));
+                continue;
+            }
+
+            updates.clear();
+            for (Pending each : batch) {
+                updates.add(each.update());
+            }
+            try {
+                FakeDataBase.putAll(updates, random);
+                long flushed = System.nanoTime();
+                for (Pending each : batch) {
+                    writeLatency.recordValue(TimeUnit.NANOSECONDS.toMicros(flushed - each.enqueued()));
+                }
+                batches.increment();
+                written.add(batch.size());
+            } catch (InterruptedException e) {
+                lost.add(batch.size());
+                Thread.currentThread().interrupt();
+                return;
+            } catch (TimeoutException e) {
+                // counted by the connection pool
+                lost.add(batch.size());
+            }
+            batch.clear();
+        }
+    }
+
+    // Remaining linger time of the oldest update of a batch
+    private long lingering(Pending oldest) {
+        return oldest.enqueued() + lingerNanos - System.nanoTime();
+    }
+
+    // Write the remaining updates and stop the flushers, waiting for them even if interrupted
+    @Override
+    public void close() {
+        closed = true;
+        boolean interrupted = false;
+        for (Thread flusher : flushers) {
+            LockSupport.unpark(flusher);
+            while (flusher.isAlive()) {
+                try {
+                    flusher.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        System.err.printf("Write-behind: %,d updates written in %,d batches (%.1f per batch), %,d lost%n",
+                written.sum(), batches.sum(), (double) written.sum() / Math.max(1, batches.sum()), lost.sum());
+    }
+}
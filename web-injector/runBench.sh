@@ -10,7 +10,8 @@ fi
 
 clear
 
-java -Dloom.repeats=60000 \
+java --enable-preview \
+     -Dloom.repeats=60000 \
      -Dloom.client.uri="http://localhost:8080/$uri/heap" \
      -Dloom.bench.active=true \
      -Dloom.bench.warmup=true \
@@ -0,0 +1,17 @@
+#! /bin/zsh
+
+if [ -z "$1" ]
+then
+	local uris="http://localhost:8080/loom/quick,http://localhost:8080/noloom/quick,http://localhost:8080/reactive/quick"
+	
+else
+	local uris="$1"
+fi
+
+clear
+
+java --enable-preview \
+     -Dloom.compare.uris="$uris" \
+     -Dloom.duration-seconds=60 \
+     -Dloom.bench.warmup=true \
+     -jar target/injector-1.0.jar
@@ -10,7 +10,8 @@ fi
 
 clear
 
-java -Dloom.repeats=200000 \
+java --enable-preview \
+     -Dloom.repeats=200000 \
      -Dloom.client.uri="http://localhost:8080/$uri/quick" \
      -Dloom.bench.warmup=false \
      -Dloom.bench.active=false \
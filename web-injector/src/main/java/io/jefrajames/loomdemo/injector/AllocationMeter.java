@@ -0,0 +1,62 @@
+package io.jefrajames.loomdemo.injector;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ *
+ * Measures how many bytes the injector allocates on the heap.
+ *
+ * Per-thread counters miss the threads that are already gone, so allocations
+ * are derived from the heap instead: what the collectors freed since the
+ * start, plus the growth of the used heap.
+ *
+ */
+class AllocationMeter {
+
+    private final LongAdder collected = new LongAdder();
+    private long usedAtStart;
+
+    AllocationMeter() {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter emitter) {
+                emitter.addNotificationListener((notification, handback) -> {
+                    if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION
+                            .equals(notification.getType())) {
+                        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+                                .from((CompositeData) notification.getUserData());
+                        collected.add(used(info.getGcInfo().getMemoryUsageBeforeGc())
+                                - used(info.getGcInfo().getMemoryUsageAfterGc()));
+                    }
+                }, null, null);
+            }
+        }
+    }
+
+    private static long used(Map<String, MemoryUsage> pools) {
+        long used = 0;
+        for (MemoryUsage usage : pools.values()) {
+            used += usage.getUsed();
+        }
+        return used;
+    }
+
+    // Start counting from now
+    void reset() {
+        collected.reset();
+        usedAtStart = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    // Bytes allocated since the last reset, approximate since GC notifications are asynchronous
+    long allocated() {
+        return collected.sum() + ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() - usedAtStart;
+    }
+}
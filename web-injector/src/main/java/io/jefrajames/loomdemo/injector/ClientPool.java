@@ -0,0 +1,86 @@
+package io.jefrajames.loomdemo.injector;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpClient.Builder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *
+ * Provides the HTTP clients used by the injector threads.
+ *
+ * Each HttpClient comes with its own selector thread and connection pool, so
+ * the way they are shared defines how many threads and TCP connections the
+ * injector actually uses. A thread index always gets the same client, so that
+ * the connections opened during warmup are reused by the test.
+ *
+ */
+class ClientPool {
+
+    enum Sharing {
+        // a client for each thread
+        PER_THREAD,
+        // a single client for all threads
+        SHARED,
+        // a fixed number of clients, threads being spread over them
+        STRIPED
+    }
+
+    private final Builder builder;
+    private final Sharing sharing;
+    private final HttpClient[] clients;
+    // Clients of PER_THREAD, created on first use so that warmup and load threads of the same index share them
+    private final Map<Integer, HttpClient> perThread = new ConcurrentHashMap<>();
+
+    ClientPool(Builder builder, Sharing sharing, int stripes) {
+        this.builder = builder;
+        this.sharing = sharing;
+        this.clients = new HttpClient[switch (sharing) {
+            case PER_THREAD -> 0;
+            case SHARED -> 1;
+            case STRIPED -> Math.max(1, stripes);
+        }];
+        for (int i = 0; i < clients.length; i++) {
+            clients[i] = builder.build();
+        }
+    }
+
+    // Client to be used by the thread of the given index
+    HttpClient client(int index) {
+        return switch (sharing) {
+            case PER_THREAD -> perThread.computeIfAbsent(index, i -> builder.build());
+            case SHARED -> clients[0];
+            case STRIPED -> clients[index % clients.length];
+        };
+    }
+
+    // Closes the connections of the clients, HttpClient being AutoCloseable from Java 21 on. Before that, they
+    // are closed once the clients are garbage collected.
+    void close() {
+        List<HttpClient> all = new ArrayList<>(Arrays.asList(clients));
+        all.addAll(perThread.values());
+        perThread.clear();
+        for (HttpClient client : all) {
+            if (client instanceof AutoCloseable closeable) {
+                try {
+                    closeable.close();
+                } catch (Exception e) {
+                    // HttpClient.close() throws no checked exception
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return switch (sharing) {
+            case PER_THREAD -> "one HTTP client per thread";
+            case SHARED -> "one shared HTTP client";
+            case STRIPED -> String.format("%,d striped HTTP clients", clients.length);
+        };
+    }
+}
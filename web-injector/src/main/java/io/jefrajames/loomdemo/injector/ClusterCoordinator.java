@@ -0,0 +1,180 @@
+package io.jefrajames.loomdemo.injector;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.DataFormatException;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ *
+ * Coordinates several injector processes (workers) to load a server that a
+ * single injector cannot saturate.
+ *
+ * Workers connect over TCP, are started in lockstep once all of them are
+ * there, and stream their latency histograms every monitor period. The
+ * coordinator merges them to print cluster-wide throughput and percentiles.
+ *
+ * Messages are framed with DataOutputStream: the worker name on connection,
+ * START from the coordinator, then TICK and finally DONE from each worker.
+ *
+ */
+class ClusterCoordinator {
+
+    static final byte START = 0;
+    static final byte TICK = 1;
+    static final byte DONE = 2;
+
+    private final int port;
+    private final int workerCount;
+    private final long periodMillis;
+
+    // Merged worker ticks, guarded by lock (no synchronized to avoid pinning the reader Virtual Threads)
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Histogram interval = LatencyRecorder.newHistogram();
+    private final Histogram total = LatencyRecorder.newHistogram();
+    private long success;
+    private long timeout;
+    private long error;
+    private long requests;
+    private long maxElapsedNanos;
+    private CountDownLatch done;
+
+    ClusterCoordinator(int port, int workerCount, long periodMillis) {
+        this.port = port;
+        this.workerCount = workerCount;
+        this.periodMillis = periodMillis;
+    }
+
+    void run() throws IOException, InterruptedException {
+        List<Socket> workers = new ArrayList<>();
+        done = new CountDownLatch(workerCount);
+
+        try (ServerSocket server = new ServerSocket(port)) {
+            System.out.printf("Waiting for %,d workers on port %d ...%n", workerCount, port);
+            while (workers.size() < workerCount) {
+                Socket worker = server.accept();
+                String name = new DataInputStream(worker.getInputStream()).readUTF();
+                workers.add(worker);
+                System.out.printf("Worker %s connected from %s (%d/%d)%n", name, worker.getRemoteSocketAddress(),
+                        workers.size(), workerCount);
+            }
+
+            // start all workers at once
+            for (Socket worker : workers) {
+                DataOutputStream out = new DataOutputStream(worker.getOutputStream());
+                out.writeByte(START);
+                out.flush();
+            }
+            System.out.println("Workers started");
+
+            for (Socket worker : workers) {
+                Thread.ofVirtual().name("worker-reader").start(() -> read(worker));
+            }
+
+            System.out.println("  Cluster Req/s    Success  Timeout  Error      p50      p90      p99    p99.9      max");
+            long lastRun = System.nanoTime();
+            while (!done.await(periodMillis, TimeUnit.MILLISECONDS)) {
+                lastRun = print(lastRun);
+            }
+            print(lastRun);
+        } finally {
+            for (Socket worker : workers) {
+                worker.close();
+            }
+        }
+
+        System.out.printf("Latency over %,d requests in ms: p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f%n",
+                total.getTotalCount(),
+                LatencyRecorder.millis(total, 50), LatencyRecorder.millis(total, 90),
+                LatencyRecorder.millis(total, 99), LatencyRecorder.millis(total, 99.9),
+                LatencyRecorder.maxMillis(total));
+        System.out.printf("Cluster average throughput is %,9.2f Req/s%n",
+                requests / Math.max(1e-9, maxElapsedNanos / 1e9));
+    }
+
+    // Receive the ticks of a worker until it is done
+    private void read(Socket worker) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(worker.getInputStream()))) {
+            while (true) {
+                byte type = in.readByte();
+                long first = in.readLong();
+                long second = in.readLong();
+                long third = in.readLong();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                Histogram histogram = LatencyRecorder.decode(bytes);
+
+                lock.lock();
+                try {
+                    if (type == TICK) {
+                        success += first;
+                        timeout += second;
+                        error += third;
+                        interval.add(histogram);
+                    } else {
+                        // the whole run of the worker
+                        requests += first;
+                        maxElapsedNanos = Math.max(maxElapsedNanos, second);
+                        total.add(histogram);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                if (type == DONE) {
+                    break;
+                }
+            }
+        } catch (IOException | DataFormatException e) {
+            System.err.printf("Worker %s lost: %s%n", worker.getRemoteSocketAddress(), e);
+        }
+        done.countDown();
+    }
+
+    private long print(long lastRun) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            double perSecond = success / Math.max(1e-9, (now - lastRun) / 1e9);
+            System.out.printf("%,15.2f %10d %8d %6d %8.2f %8.2f %8.2f %8.2f %8.2f%n", perSecond, success, timeout,
+                    error,
+                    LatencyRecorder.millis(interval, 50), LatencyRecorder.millis(interval, 90),
+                    LatencyRecorder.millis(interval, 99), LatencyRecorder.millis(interval, 99.9),
+                    LatencyRecorder.maxMillis(interval));
+            success = 0;
+            timeout = 0;
+            error = 0;
+            interval.reset();
+        } finally {
+            lock.unlock();
+        }
+        return now;
+    }
+
+    // Sending side of the protocol
+    static void send(DataOutputStream out, byte type, long first, long second, long third, Histogram histogram)
+            throws IOException {
+        byte[] bytes = LatencyRecorder.encode(histogram);
+        out.writeByte(type);
+        out.writeLong(first);
+        out.writeLong(second);
+        out.writeLong(third);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.flush();
+    }
+
+    static DataOutputStream output(Socket socket) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+}
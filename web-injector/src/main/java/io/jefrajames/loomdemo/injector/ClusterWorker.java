@@ -0,0 +1,59 @@
+package io.jefrajames.loomdemo.injector;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ *
+ * Injector process driven by a ClusterCoordinator: it waits for the
+ * coordinator to start the run, then streams its counters and latency
+ * histograms every monitor period.
+ *
+ */
+class ClusterWorker {
+
+    private final Socket socket;
+    private final DataOutputStream out;
+
+    private ClusterWorker(Socket socket) throws IOException {
+        this.socket = socket;
+        this.out = ClusterCoordinator.output(socket);
+    }
+
+    static ClusterWorker connect(String host, int port) throws IOException {
+        ClusterWorker worker = new ClusterWorker(new Socket(host, port));
+        worker.out.writeUTF(ProcessHandle.current().pid() + "@" + InetAddress.getLocalHost().getHostName());
+        worker.out.flush();
+        System.out.printf("Connected to coordinator %s:%d%n", host, port);
+        return worker;
+    }
+
+    // Block until all workers are connected
+    void awaitStart() throws IOException {
+        System.out.print("Waiting for the coordinator to start ...");
+        byte message = new DataInputStream(socket.getInputStream()).readByte();
+        if (message != ClusterCoordinator.START) {
+            throw new IOException("Unexpected message from coordinator: " + message);
+        }
+        System.out.println(" started!");
+    }
+
+    // Called by the monitor every period
+    void tick(long success, long timeout, long error, Histogram latency) {
+        try {
+            ClusterCoordinator.send(out, ClusterCoordinator.TICK, success, timeout, error, latency);
+        } catch (IOException e) {
+            System.err.println("Unable to reach coordinator: " + e);
+        }
+    }
+
+    void done(long requests, long elapsedNanos, Histogram latency) throws IOException {
+        ClusterCoordinator.send(out, ClusterCoordinator.DONE, requests, elapsedNanos, 0, latency);
+        socket.close();
+    }
+}
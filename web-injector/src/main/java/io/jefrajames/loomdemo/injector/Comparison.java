@@ -0,0 +1,66 @@
+package io.jefrajames.loomdemo.injector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ *
+ * Results of the same load sent in sequence to several servers, displayed
+ * side by side with their relative difference to a baseline.
+ *
+ */
+class Comparison {
+
+    record Result(String uri, long requests, double throughput, long timeout, long error, double p50, double p90,
+            double p99, double p999, double max) {
+
+        double errorPercent() {
+            return 100.0 * (timeout + error) / Math.max(1, requests);
+        }
+    }
+
+    private final List<Result> results = new ArrayList<>();
+    private final int baseline;
+
+    Comparison(int baseline) {
+        this.baseline = baseline;
+    }
+
+    void add(String uri, long requests, double throughput, long timeout, long error, Histogram latency) {
+        results.add(new Result(uri, requests, throughput, timeout, error, LatencyRecorder.millis(latency, 50),
+                LatencyRecorder.millis(latency, 90), LatencyRecorder.millis(latency, 99),
+                LatencyRecorder.millis(latency, 99.9), LatencyRecorder.maxMillis(latency)));
+    }
+
+    void print() {
+        Result base = results.get(Math.min(baseline, results.size() - 1));
+        int width = 6;
+        for (Result result : results) {
+            width = Math.max(width, result.uri().length());
+        }
+
+        System.out.printf("%nComparison against %s%n", base.uri());
+        System.out.printf("%-" + width + "s %12s %8s %8s %8s %8s %8s %8s%n", "Target", "Req/s", "Errors", "p50",
+                "p90", "p99", "p99.9", "max");
+        for (Result result : results) {
+            System.out.printf("%-" + width + "s %,12.2f %7.2f%% %8.2f %8.2f %8.2f %8.2f %8.2f%n", result.uri(),
+                    result.throughput(), result.errorPercent(), result.p50(), result.p90(), result.p99(),
+                    result.p999(), result.max());
+            if (result != base) {
+                System.out.printf("%-" + width + "s %12s %8s %8s %8s %8s %8s %8s%n", "",
+                        difference(result.throughput(), base.throughput()),
+                        String.format("%+.2f", result.errorPercent() - base.errorPercent()),
+                        difference(result.p50(), base.p50()), difference(result.p90(), base.p90()),
+                        difference(result.p99(), base.p99()), difference(result.p999(), base.p999()),
+                        difference(result.max(), base.max()));
+            }
+        }
+    }
+
+    // Relative difference in percent
+    private static String difference(double value, double base) {
+        return base == 0 ? "-" : String.format("%+.1f%%", 100.0 * (value - base) / base);
+    }
+}
@@ -0,0 +1,204 @@
+package io.jefrajames.loomdemo.injector;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * Keeps track of the TCP connections used by the injector.
+ *
+ * The JDK HTTP client does not expose its connection pool, so the sockets held
+ * by the process are sampled from /proc/self/fd, keeping the TCP ones listed
+ * in /proc/self/net/tcp and tcp6 (Linux only). Connections are identified by
+ * their socket inode: those not seen at the previous sample have been opened
+ * in between. Short-lived connections opened and closed between
+ * two samples are not seen. Sockets that do not carry the load, such as those
+ * sampling the server or talking to the coordinator, are excluded.
+ *
+ * A single instance is shared by the runs of a comparison, so that the sockets
+ * excluded by a run are not counted by the next ones.
+ *
+ * Each sample scans all the file descriptors of the process, so the monitor
+ * samples at most once per period. The CPU time and memory spent sampling are
+ * measured to be left out of the injector overhead.
+ *
+ */
+class ConnectionStats {
+
+    private static final Path FD_DIR = Path.of("/proc/self/fd");
+    private static final String SOCKET_PREFIX = "socket:[";
+    // TCP sockets, other ones (such as Unix domain sockets of the JVM) not being connections
+    private static final List<Path> TCP_TABLES = List.of(Path.of("/proc/self/net/tcp"),
+            Path.of("/proc/self/net/tcp6"));
+    // Column of the socket inode in the TCP tables
+    private static final int INODE_COLUMN = 9;
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory
+            .getThreadMXBean();
+
+    private final boolean available;
+    private final long periodNanos;
+    private long lastSample;
+    // Cost of the sampling since the last resetSamplingCost()
+    private final LongAdder samplingCpuNanos = new LongAdder();
+    private final LongAdder samplingAllocated = new LongAdder();
+    private Set<String> lastSockets = new HashSet<>();
+    // Sockets that are not load connections, and those open when starting to exclude
+    private final Set<String> excluded = new HashSet<>();
+    private Set<String> beforeExcluding = Set.of();
+    private int open;
+    private long opened;
+
+    ConnectionStats(boolean enabled, long periodMillis) {
+        this.available = enabled && Files.isDirectory(FD_DIR);
+        this.periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMillis);
+        this.lastSample = System.nanoTime() - periodNanos;
+    }
+
+    boolean isAvailable() {
+        return available;
+    }
+
+    // Called by the monitor at each tick, sampling only once the period has elapsed
+    void sample() {
+        if (System.nanoTime() - lastSample >= periodNanos) {
+            sampleNow();
+        }
+    }
+
+    void sampleNow() {
+        lastSample = System.nanoTime();
+        Set<String> sockets = sockets();
+        if (sockets == null) {
+            return;
+        }
+        sockets.removeAll(excluded);
+        for (String socket : sockets) {
+            if (!lastSockets.contains(socket)) {
+                opened++;
+            }
+        }
+        open = sockets.size();
+        lastSockets = sockets;
+    }
+
+    // Sockets opened from now on until endExcluding() are not counted, typically those used to monitor the
+    // server or to talk to the coordinator. No request must be sent in between.
+    void startExcluding() {
+        Set<String> sockets = sockets();
+        beforeExcluding = sockets != null ? sockets : Set.of();
+    }
+
+    void endExcluding() {
+        Set<String> sockets = sockets();
+        if (sockets != null) {
+            sockets.removeAll(beforeExcluding);
+            excluded.addAll(sockets);
+        }
+        beforeExcluding = Set.of();
+    }
+
+    // TCP sockets held by the process, null if unknown
+    private Set<String> sockets() {
+        if (!available) {
+            return null;
+        }
+        long cpu = THREADS.getCurrentThreadCpuTime();
+        long allocated = THREADS.getCurrentThreadAllocatedBytes();
+        try {
+            return scan();
+        } finally {
+            // -1 when not supported, for instance by Virtual Threads
+            if (cpu >= 0) {
+                samplingCpuNanos.add(THREADS.getCurrentThreadCpuTime() - cpu);
+            }
+            if (allocated >= 0) {
+                samplingAllocated.add(THREADS.getCurrentThreadAllocatedBytes() - allocated);
+            }
+        }
+    }
+
+    private Set<String> scan() {
+        Set<String> tcp = new HashSet<>();
+        Set<String> sockets = new HashSet<>();
+        try {
+            for (Path table : TCP_TABLES) {
+                if (Files.isReadable(table)) {
+                    List<String> lines = Files.readAllLines(table);
+                    // skip the header line
+                    for (String line : lines.subList(1, lines.size())) {
+                        tcp.add(SOCKET_PREFIX + line.trim().split("\\s+")[INODE_COLUMN] + "]");
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        try (DirectoryStream<Path> fds = Files.newDirectoryStream(FD_DIR)) {
+            for (Path fd : fds) {
+                try {
+                    String target = Files.readSymbolicLink(fd).toString();
+                    if (tcp.contains(target)) {
+                        sockets.add(target);
+                    }
+                } catch (IOException e) {
+                    // closed in the meantime
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return sockets;
+    }
+
+    // The clients holding the load connections have been closed, for instance at the end of a target of a
+    // comparison. Before Java 21, their connections are only closed once the clients are garbage collected,
+    // those still open are not counted anymore, nor by the next run.
+    void clientsClosed() {
+        Set<String> sockets = sockets();
+        if (sockets != null) {
+            sockets.retainAll(lastSockets);
+            excluded.addAll(sockets);
+        }
+        lastSockets = new HashSet<>();
+        open = 0;
+        opened = 0;
+    }
+
+    // Forget the connections opened so far (typically during warmup)
+    void reset() {
+        sampleNow();
+        opened = 0;
+    }
+
+    // Start measuring the cost of the sampling from now
+    void resetSamplingCost() {
+        samplingCpuNanos.reset();
+        samplingAllocated.reset();
+    }
+
+    long samplingCpuNanos() {
+        return samplingCpuNanos.sum();
+    }
+
+    long samplingAllocated() {
+        return samplingAllocated.sum();
+    }
+
+    // Connections open at the last sample
+    int open() {
+        return open;
+    }
+
+    // Connections opened since the start
+    long opened() {
+        return opened;
+    }
+}
@@ -0,0 +1,107 @@
+package io.jefrajames.loomdemo.injector;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * Bounds and measures the concurrent streams of HTTP/2 connections.
+ *
+ * Each HttpClient keeps a single HTTP/2 connection per server, so the clients
+ * of the pool are the connections. Requests acquire a stream from the
+ * connection of their client, which limits the streams in flight per
+ * connection below what the server advertises, and measures the stream
+ * concurrency actually achieved.
+ *
+ */
+class Http2Streams {
+
+    private final HttpClient[] connections;
+    private final Semaphore[] streams;
+    private final AtomicInteger[] inFlight;
+    private final AtomicInteger peak = new AtomicInteger();
+    private final LongAdder streamNanos = new LongAdder();
+    private final LongAdder http2Responses = new LongAdder();
+    private final LongAdder responses = new LongAdder();
+    private final int maxStreams;
+    private long start = System.nanoTime();
+
+    // maxStreams 0 leaves the limit to the server
+    Http2Streams(ClientPool clients, int connectionCount, int maxStreams) {
+        this.maxStreams = maxStreams;
+        connections = new HttpClient[connectionCount];
+        streams = new Semaphore[connectionCount];
+        inFlight = new AtomicInteger[connectionCount];
+        for (int i = 0; i < connectionCount; i++) {
+            connections[i] = clients.client(i);
+            streams[i] = maxStreams > 0 ? new Semaphore(maxStreams) : null;
+            inFlight[i] = new AtomicInteger();
+        }
+    }
+
+    // Connections are few, a linear search is cheaper than hashing
+    private int indexOf(HttpClient client) {
+        for (int i = 0; i < connections.length; i++) {
+            if (connections[i] == client) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown HTTP/2 connection " + client);
+    }
+
+    // Wait for a free stream on the connection of the client, returns the acquisition time
+    long acquire(HttpClient client) throws InterruptedException {
+        int index = indexOf(client);
+        if (streams[index] != null) {
+            streams[index].acquire();
+        }
+        int current = inFlight[index].incrementAndGet();
+        peak.accumulateAndGet(current, Math::max);
+        return System.nanoTime();
+    }
+
+    void release(HttpClient client, HttpResponse<?> response, long acquired) {
+        int index = indexOf(client);
+        streamNanos.add(System.nanoTime() - acquired);
+        inFlight[index].decrementAndGet();
+        if (streams[index] != null) {
+            streams[index].release();
+        }
+        if (response != null) {
+            responses.increment();
+            if (response.version() == HttpClient.Version.HTTP_2) {
+                http2Responses.increment();
+            }
+        }
+    }
+
+    // Forget the streams used so far (typically to upgrade the connections)
+    void reset() {
+        peak.set(0);
+        streamNanos.reset();
+        http2Responses.reset();
+        responses.reset();
+        start = System.nanoTime();
+    }
+
+    void print() {
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        long total = responses.sum();
+        System.out.printf("HTTP/2 concurrent streams per connection: peak %,d, average %,.1f over %,d connections%n",
+                peak.get(), (double) streamNanos.sum() / elapsed / connections.length, connections.length);
+        if (http2Responses.sum() < total) {
+            System.out.printf("Only %,d of %,d responses used HTTP/2, the server did not upgrade to h2c%n",
+                    http2Responses.sum(), total);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("HTTP/2 over %,d connections, %s", connections.length,
+                maxStreams > 0 ? String.format("up to %,d streams per connection", maxStreams)
+                        : "streams limited by the server");
+    }
+}
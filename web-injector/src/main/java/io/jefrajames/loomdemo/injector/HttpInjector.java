@@ -1,19 +1,29 @@
 package io.jefrajames.loomdemo.injector;
 
-import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpClient.Builder;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.net.http.HttpResponse.BodyHandlers;
-import java.net.http.HttpTimeoutException;
 import java.time.Duration;
-import java.util.concurrent.CountDownLatch;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
 
 import io.helidon.config.Config;
+import io.helidon.config.ConfigSources;
 
 /**
  * 
@@ -22,99 +32,112 @@ import io.helidon.config.Config;
  */
 public class HttpInjector {
 
-    private static final AtomicInteger SUCCESS = new AtomicInteger();
-    private static final AtomicInteger TIMEOUT = new AtomicInteger();
-    private static final AtomicInteger ERROR = new AtomicInteger();
-    private static String RESPONSE;
+    // Process wide, listening to the collectors once for all runs
+    private static final AllocationMeter ALLOCATIONS = new AllocationMeter();
 
-    private static final int WARMUP_COUNT = 1_000;
+    private static final long PROFILE_TICK_MILLIS = 100;
+    private static final int MEGA_BYTE = 1024 * 1024;
 
-    private static String get(HttpClient client, String uri, int readTimeout) {
+    // Kind of threads used to send requests
+    enum ThreadKind {
+        PLATFORM, VIRTUAL
+    }
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(uri))
-                .GET()
-                .timeout(Duration.ofMillis(readTimeout))
-                .build();
+    // How requests are sent in the closed model
+    enum Engine {
+        // client.send from one thread per concurrent request
+        BLOCKING,
+        // client.sendAsync with callbacks from a bounded number of requests in flight
+        ASYNC
+    }
 
-        HttpResponse<String> response;
-        try {
-            response = client.send(request, BodyHandlers.ofString());
-            if (response.statusCode() != 200) {
-                ERROR.incrementAndGet();
-                return null;
-            }
-            SUCCESS.incrementAndGet();
-            RESPONSE = response.body();
-            return response.body();
-        } catch (HttpTimeoutException e) {
-            TIMEOUT.incrementAndGet();
-            return null;
-        } catch (IOException | InterruptedException e) {
-            ERROR.incrementAndGet();
-            return null;
+    // Closed loop at the configured concurrency until the throughput of the server is steady,
+    // returns the warmup duration in seconds
+    private static double warmup(Run run, ThreadKind threadKind, int threadCount, SteadyState steadyState,
+            long windowMillis, long maxSeconds) throws InterruptedException {
+
+        System.out.printf("Warming up server with %,d %s threads ...", threadCount,
+                threadKind.name().toLowerCase());
+
+        AtomicBoolean warming = new AtomicBoolean(true);
+        Thread.Builder threadBuilder = threadBuilder(threadKind, "warmup-");
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threads.length; i++) {
+            HttpClient client = run.clients.client(i);
+            threads[i] = threadBuilder.start(() -> {
+                while (warming.get()) {
+                    run.get(client);
+                }
+            });
         }
 
-    }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(maxSeconds);
+        long lastRun = start;
+        long lastSuccess = run.counters.success();
+        boolean steady = false;
+        while (!steady && System.nanoTime() < deadline) {
+            Thread.sleep(windowMillis);
+            long now = System.nanoTime();
+            long success = run.counters.success();
+            steady = steadyState.add((success - lastSuccess) / ((now - lastRun) / 1e9));
+            lastRun = now;
+            lastSuccess = success;
+        }
+
+        warming.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
 
-    private static void warmup(Builder builder, String uri, int readTimeout) throws Exception {
-        System.out.printf("Warming up server with %,d requests ...", WARMUP_COUNT);
-        HttpClient client = builder.build();
-        for (int j = 0; j < WARMUP_COUNT; j++) {
-            get(client, uri, readTimeout);
+        double seconds = (lastRun - start) / 1e9;
+        if (steady) {
+            System.out.printf(" steady state reached after %.1f s at %,.2f Req/s%n", seconds, steadyState.mean());
+        } else {
+            System.out.printf(" no steady state after %.1f s, last windows at %,.2f Req/s%n", seconds,
+                    steadyState.mean());
         }
-        System.out.println(" done!");
+        return seconds;
     }
 
-    private static double computeAverageThroughput(int repeats, int threadCount, long start) {
+    private static Thread.Builder threadBuilder(ThreadKind threadKind, String prefix) {
+        return threadKind == ThreadKind.VIRTUAL
+                ? Thread.ofVirtual().name(prefix, 0)
+                : Thread.ofPlatform().name(prefix, 0);
+    }
+
+    private static double computeAverageThroughput(long requestCount, long start) {
         long end = System.nanoTime();
         long elapsedTime = end - start;
         double elapsedTimeInSecond = (double) elapsedTime / 1_000_000_000;
-        double throughput = (repeats * threadCount) / elapsedTimeInSecond;
+        double throughput = requestCount / elapsedTimeInSecond;
         return throughput;
     }
 
-    public static void main(String[] args) throws Exception {
-
-        // Load properties
-        Config config = Config.create().get("loom");
-        int threadCount = config.get("threads").asInt().orElse(10);
-        int repeats = config.get("repeats").asInt().orElse(60_000);
-        long monitorPeriodSeconds = config.get("monitor.period-seconds").asLong().orElse(1L);
-        boolean monitorPrintHeader = config.get("monitor.print-header").asBoolean().orElse(true);
-        int monitorPrintHeaderEvery = config.get("monitor.print-header-lines").asInt().orElse(10);
-        boolean benchActive = config.get("bench.active").asBoolean().orElse(false);
-        boolean warmup = config.get("bench.warmup").asBoolean().orElse(false);
-        int connectTimeout = config.get("client.connect.connect-timeout-millis").asInt().orElse(1000);
-        int readTimeout = config.get("client.read-timeout-millis").asInt().orElse(2000);
-        String uri = config.get("client.uri").asString().orElse("http://localhost:8080/loom/quick");
-
-        Builder builder = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofMillis(connectTimeout))
-                .version(HttpClient.Version.HTTP_1_1);
+    // Closed model: each thread sends its requests back-to-back, repeats of them or during durationNanos if not 0
+    private static long sendInClosedLoop(Run run, ThreadKind threadKind, int threadCount, int repeats,
+            long durationNanos) throws InterruptedException {
 
-        if (benchActive && warmup)
-            warmup(builder, uri, readTimeout);
+        Thread[] threads = new Thread[threadCount];
+        LongAdder requestCount = new LongAdder();
 
-        long start = System.nanoTime();
+        Thread.Builder threadBuilder = threadBuilder(threadKind, "injector-");
 
-        Thread[] threads = new Thread[threadCount];
+        System.out.printf("Injecting %swith %,d %s threads and %s%n",
+                durationNanos > 0 ? String.format("for %,d s ", TimeUnit.NANOSECONDS.toSeconds(durationNanos)) : "",
+                threadCount, threadKind.name().toLowerCase(), run.clients);
 
+        long end = System.nanoTime() + durationNanos;
         for (int i = 0; i < threads.length; i++) {
-            threads[i] = new Thread(() -> {
-                HttpClient client = builder.build();
-                for (int j = 0; j < repeats; j++) {
-                    get(client, uri, readTimeout);
+            HttpClient client = run.clients.client(i);
+            threads[i] = threadBuilder.unstarted(() -> {
+                for (int j = 0; j < repeats && (durationNanos == 0 || System.nanoTime() - end < 0); j++) {
+                    run.get(client);
+                    requestCount.increment();
                 }
             });
         }
 
-        // start monitoring
-        Monitor monitor = new Monitor(uri, monitorPeriodSeconds, monitorPrintHeader, monitorPrintHeaderEvery);
-        Thread monitorThread = new Thread(monitor);
-        monitorThread.setDaemon(true);
-        monitorThread.start();
-
         for (Thread thread : threads) {
             thread.start();
         }
@@ -123,90 +146,480 @@ public class HttpInjector {
             thread.join();
         }
 
-        monitor.finish();
+        return requestCount.sum();
+    }
 
-        // Print throughput
-        if (benchActive) {
-            double throughput = computeAverageThroughput(repeats, threadCount, start);
-            System.out.printf("Average throughput is %,9.2f Req/s%n", throughput);
+    // Closed model without blocking: a new request is sent asynchronously as soon as a permit is released
+    // by the completion of a previous one, keeping at most window requests in flight
+    private static long sendAsynchronously(Run run, int window, long requestCount, long durationNanos)
+            throws InterruptedException {
+
+        Semaphore permits = new Semaphore(window);
+
+        System.out.printf("Injecting with up to %,d asynchronous requests in flight and %s%n", window, run.clients);
+
+        long end = System.nanoTime() + durationNanos;
+        long sent = 0;
+        for (; sent < requestCount && (durationNanos == 0 || System.nanoTime() - end < 0); sent++) {
+            permits.acquire();
+            Scenario.Endpoint endpoint = run.scenario.acquire();
+            if (run.rateLimiter != null) {
+                try {
+                    run.rateLimiter.acquire();
+                } catch (InterruptedException e) {
+                    run.scenario.release(endpoint);
+                    throw e;
+                }
+            }
+            long start = System.nanoTime();
+            HttpClient client = run.clients.client((int) (sent % window));
+            long acquired = run.streams != null ? run.streams.acquire(client) : 0;
+            client.sendAsync(endpoint.newRequest(run.readTimeout), run.bodies.handler())
+                    .whenComplete((response, error) -> {
+                        if (run.streams != null) {
+                            run.streams.release(client, response, acquired);
+                        }
+                        run.scenario.release(endpoint);
+                        run.complete(endpoint, response, error, start);
+                        permits.release();
+                    });
         }
 
+        // wait for the last requests in flight
+        permits.acquire(window);
+
+        return sent;
     }
 
-    private static class Monitor implements Runnable {
-        private final String uri;
-        private final long sleepSeconds;
-        private final boolean printHeader;
-        private final int printHeaderEvery;
-        private volatile boolean finish;
-        private final CountDownLatch finishLatch = new CountDownLatch(1);
-        private int lastCount = 0;
-        private long lastRun;
-        private int printCounter;
+    // Open model: requests are scheduled on a fixed timeline whatever the server response time,
+    // each one sent from its own Virtual Thread. Latency is measured from the intended send time
+    // so that a slow server is not hidden by coordinated omission.
+    private static long sendAtConstantRate(Run run, int rate, long durationSeconds) {
 
-        private Monitor(String uri, long sleepSeconds, boolean printHeader, int printHeaderEvery) {
-            this.uri = uri;
-            this.sleepSeconds = sleepSeconds;
-            this.printHeader = printHeader;
-            this.printHeaderEvery = printHeaderEvery;
-        }
+        long requestCount = rate * durationSeconds;
 
-        @Override
-        public void run() {
-            System.out.println("Monitoring requests to " + uri);
+        System.out.printf("Injecting %,d Req/s during %,d seconds from virtual threads and %s%n", rate,
+                durationSeconds, run.clients);
 
-            if (printHeader) {
-                header();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            long start = System.nanoTime();
+            for (long i = 0; i < requestCount; i++) {
+                long intended = start + i * 1_000_000_000L / rate;
+                long delay = intended - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+                HttpClient client = run.clients.client((int) (i % rate));
+                executor.execute(() -> run.get(client, intended));
             }
+        }
+
+        return requestCount;
+    }
 
-            lastRun = System.nanoTime();
-            while (!finish) {
+    // Closed model following a load profile: each user sends requests back-to-back while
+    // its index is below the number of active users set by the profile
+    private static long sendWithUserProfile(Run run, ThreadKind threadKind, LoadProfile profile, long start,
+            AtomicInteger activeUsers) throws InterruptedException {
+
+        Thread[] threads = new Thread[profile.max()];
+        LongAdder requestCount = new LongAdder();
+        long end = start + profile.durationNanos();
+
+        Thread.Builder threadBuilder = threadBuilder(threadKind, "injector-");
+
+        System.out.printf("Injecting with %s %s threads and %s%n", profile, threadKind.name().toLowerCase(),
+                run.clients);
+
+        for (int i = 0; i < threads.length; i++) {
+            int user = i;
+            HttpClient client = run.clients.client(i);
+            threads[i] = threadBuilder.unstarted(() -> {
                 try {
-                    TimeUnit.SECONDS.sleep(sleepSeconds);
+                    while (System.nanoTime() < end) {
+                        if (user >= activeUsers.get()) {
+                            TimeUnit.MILLISECONDS.sleep(PROFILE_TICK_MILLIS);
+                            continue;
+                        }
+                        run.get(client);
+                        requestCount.increment();
+                    }
                 } catch (InterruptedException e) {
-                    // we were interrupted, no need to move forward
-                    return;
+                    // stop this user
                 }
-                if (!finish) {
-                    print();
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        return requestCount.sum();
+    }
+
+    // Open model following a load profile: the interval between two requests follows the profile rate
+    private static long sendAtProfileRate(Run run, LoadProfile profile, long start) {
+
+        long requestCount = 0;
+        long end = start + profile.durationNanos();
+
+        System.out.printf("Injecting with %s Req/s from virtual threads and %s%n", profile, run.clients);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            long intended = start;
+            while (intended < end) {
+                long delay = intended - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(delay);
                 }
+                HttpClient client = run.clients.client((int) (requestCount % profile.max()));
+                long sendTime = intended;
+                executor.execute(() -> run.get(client, sendTime));
+                requestCount++;
+                intended += 1_000_000_000L / Math.max(1, profile.target(intended - start));
             }
-            finishLatch.countDown();
         }
 
-        private void header() {
-            if (printHeader) {
-                System.out.println("    Req/s    Success  Timeout  Error   Response");
+        return requestCount;
+    }
+
+    // Update the active users according to the profile and measure each stage until the end of the profile
+    private static List<LoadProfile.Stage> followProfile(Run run, LoadProfile profile, long start,
+            AtomicInteger activeUsers) throws InterruptedException {
+
+        List<LoadProfile.Stage> stages = new ArrayList<>();
+        long end = start + profile.durationNanos();
+        long stageStart = start;
+        int stage = 0;
+        int target = profile.target(0);
+        OutcomeCounters.Counts last = run.counters.snapshot();
+
+        while (true) {
+            long now = System.nanoTime();
+            int currentStage = now < end ? profile.stage(now - start) : -1;
+            if (currentStage != stage) {
+                OutcomeCounters.Counts counts = run.counters.snapshot();
+                OutcomeCounters.Counts delta = counts.minus(last);
+                stages.add(new LoadProfile.Stage(stage, target, delta.success() * 1e9 / (now - stageStart),
+                        delta.timeout(), delta.error(), run.stageLatency.interval().copy()));
+                last = counts;
+                stageStart = now;
+                stage = currentStage;
+                if (currentStage < 0) {
+                    return stages;
+                }
             }
+            target = profile.target(now - start);
+            activeUsers.set(target);
+            TimeUnit.MILLISECONDS.sleep(PROFILE_TICK_MILLIS);
         }
+    }
 
-        private void print() {
-            int currentCount = SUCCESS.get();
-            long now = System.nanoTime();
+    public static void main(String[] args) throws Exception {
 
-            int countLambda = currentCount - lastCount;
-            long timeLambda = now - lastRun;
-            long timeLambdaSeconds = TimeUnit.NANOSECONDS.toSeconds(timeLambda);
-            double perSecond = 0;
-            if (timeLambdaSeconds != 0) {
-                perSecond = (double) countLambda / timeLambdaSeconds;
+        // Load properties
+        Config config = Config.create().get("loom");
+        int threadCount = config.get("threads").asInt().orElse(10);
+        int repeats = config.get("repeats").asInt().orElse(60_000);
+        long monitorPeriodMillis = config.get("monitor.period-millis").asLong()
+                .orElse(config.get("monitor.period-seconds").asLong().orElse(1L) * 1_000);
+        boolean monitorChart = config.get("monitor.chart").asBoolean().orElse(false);
+        boolean monitorPrintHeader = config.get("monitor.print-header").asBoolean().orElse(true);
+        boolean monitorConnections = config.get("monitor.connections.enabled").asBoolean().orElse(true);
+        long monitorConnectionsPeriodMillis = config.get("monitor.connections.period-millis").asLong()
+                .orElse(1_000L);
+        int monitorPrintHeaderEvery = config.get("monitor.print-header-lines").asInt().orElse(10);
+        boolean benchActive = config.get("bench.active").asBoolean().orElse(false);
+        boolean warmup = config.get("bench.warmup").asBoolean().orElse(false);
+        long warmupWindowMillis = config.get("bench.warmup-window-millis").asLong().orElse(1_000L);
+        int warmupWindows = config.get("bench.warmup-windows").asInt().orElse(3);
+        double warmupTolerance = config.get("bench.warmup-tolerance").asDouble().orElse(0.05);
+        long warmupMaxSeconds = config.get("bench.warmup-max-seconds").asLong().orElse(60L);
+        int connectTimeout = config.get("client.connect.connect-timeout-millis").asInt().orElse(1000);
+        int readTimeout = config.get("client.read-timeout-millis").asInt().orElse(2000);
+        String uri = config.get("client.uri").asString().orElse("http://localhost:8080/loom/quick");
+        boolean serverStats = config.get("monitor.server.enabled").asBoolean().orElse(false);
+        // Defaults to /loom on the host of the target
+        String serverBaseUri = config.get("monitor.server.base-uri").asString().orElse("");
+        List<String> compareUris = config.get("compare.uris").asList(String.class).orElse(List.of());
+        boolean compare = !compareUris.isEmpty();
+        int compareBaseline = config.get("compare.baseline").asInt().orElse(0);
+        long compareCooldownSeconds = config.get("compare.cooldown-seconds").asLong().orElse(10L);
+        String scenarioFile = config.get("scenario.file").asString().orElse("");
+        String resultsFile = config.get("results.file").asString().orElse("");
+        ResponseBodies.Mode bodyMode = ResponseBodies.Mode
+                .valueOf(config.get("client.body.mode").asString().orElse("string").toUpperCase());
+        int bodySampleEvery = config.get("client.body.sample-every").asInt().orElse(1_000);
+        String clusterRole = config.get("cluster.role").asString().orElse("");
+        String clusterHost = config.get("cluster.host").asString().orElse("localhost");
+        int clusterPort = config.get("cluster.port").asInt().orElse(7_000);
+        int clusterWorkers = config.get("cluster.workers").asInt().orElse(2);
+        ThreadKind threadKind = ThreadKind
+                .valueOf(config.get("client.thread-kind").asString().orElse("platform").toUpperCase());
+        Engine engine = Engine.valueOf(config.get("client.engine").asString().orElse("blocking").toUpperCase());
+        int asyncWindow = config.get("client.async.max-in-flight").asInt().orElse(threadCount);
+        int rate = config.get("rate").asInt().orElse(0);
+        long durationSeconds = config.get("duration-seconds").asLong().orElse(60L);
+        double rateLimit = config.get("rate-limit").asDouble().orElse(0.0);
+        int rateLimitBurst = config.get("rate-limit-burst").asInt().orElse(1);
+        LoadProfile profile = config.get("profile.kind").exists() ? LoadProfile.of(config.get("profile")) : null;
+        boolean rateProfile = "rate".equalsIgnoreCase(config.get("profile.target").asString().orElse("users"));
+        boolean openModel = rate > 0 || (profile != null && rateProfile);
+        if (profile != null && !openModel && engine == Engine.ASYNC) {
+            throw new IllegalArgumentException("Load profiles are not supported by the async engine");
+        }
+        if (compare && !clusterRole.isBlank()) {
+            throw new IllegalArgumentException("Comparisons are not supported in a cluster");
+        }
+        // The paths of a scenario are absolute, each target being the uri of an endpoint instead
+        if (compare && (!scenarioFile.isBlank() || config.get("scenario.requests").exists())) {
+            throw new IllegalArgumentException("Scenarios are not supported by comparisons");
+        }
+        int clientStripes = config.get("client.stripes").asInt().orElse(Runtime.getRuntime().availableProcessors());
+        boolean http2 = config.get("client.http2.enabled").asBoolean().orElse(false);
+        int http2Connections = config.get("client.http2.connections").asInt().orElse(1);
+        int http2MaxStreams = config.get("client.http2.max-streams").asInt().orElse(0);
+        // By default, only blocking Platform Threads get their own client
+        ClientPool.Sharing sharing = config.get("client.sharing").asString().asOptional()
+                .map(name -> ClientPool.Sharing.valueOf(name.toUpperCase().replace('-', '_')))
+                .orElse(!openModel && engine == Engine.BLOCKING && threadKind == ThreadKind.PLATFORM
+                        ? ClientPool.Sharing.PER_THREAD
+                        : ClientPool.Sharing.SHARED);
+        // The asynchronous and open models have no thread to attach a client to
+        if (sharing == ClientPool.Sharing.PER_THREAD && (openModel || engine == Engine.ASYNC)) {
+            sharing = ClientPool.Sharing.SHARED;
+        }
+        // With HTTP/2, each client multiplexes its requests over a single connection
+        if (http2) {
+            sharing = http2Connections > 1 ? ClientPool.Sharing.STRIPED : ClientPool.Sharing.SHARED;
+            clientStripes = http2Connections;
+        }
+
+        if ("coordinator".equalsIgnoreCase(clusterRole)) {
+            new ClusterCoordinator(clusterPort, clusterWorkers, monitorPeriodMillis).run();
+            return;
+        }
+
+        Builder builder = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(connectTimeout))
+                .version(http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1);
+
+        ResponseBodies bodies = new ResponseBodies(bodyMode, bodySampleEvery);
+        RateLimiter rateLimiter = rateLimit > 0 ? new RateLimiter(rateLimit, rateLimitBurst) : null;
+        if (rateLimiter != null) {
+            System.out.println("Rate limited to " + rateLimiter);
+        }
+
+        // Per-thread latency recorders, bounded to keep memory under control with Virtual Threads
+        int latencyStripes = Math.min(threadCount, Runtime.getRuntime().availableProcessors() * 4);
+
+        // Either the same load sent in sequence to each target to compare, a mix of requests defined by a
+        // scenario or GET requests to a single uri
+        List<String> targets = compare ? compareUris : List.of(uri);
+        Scenario configured = null;
+        if (!scenarioFile.isBlank()) {
+            Config scenarioConfig = Config.builder(ConfigSources.file(scenarioFile))
+                    .disableEnvironmentVariablesSource()
+                    .disableSystemPropertiesSource()
+                    .build();
+            configured = Scenario.of(scenarioConfig, uri, latencyStripes);
+        } else if (config.get("scenario.requests").exists()) {
+            configured = Scenario.of(config.get("scenario"), uri, latencyStripes);
+        }
+        // When comparing, the closed model lasts duration-seconds for each target instead of a number of repeats
+        long closedDurationNanos = compare ? TimeUnit.SECONDS.toNanos(durationSeconds) : 0;
+        if (compare) {
+            repeats = Integer.MAX_VALUE;
+        }
+        Comparison comparison = compare ? new Comparison(compareBaseline) : null;
+        ConnectionStats connections = new ConnectionStats(monitorConnections, monitorConnectionsPeriodMillis);
+
+        for (int target = 0; target < targets.size(); target++) {
+            String targetUri = targets.get(target);
+            Scenario scenario = configured != null ? configured : Scenario.of(targetUri, latencyStripes);
+            if (compare) {
+                System.out.printf("%nTarget %d/%d: %s%n", target + 1, targets.size(), targetUri);
+            }
+            // New clients for each target, so that its connections are opened and counted by its own run
+            ClientPool clients = new ClientPool(builder, sharing, clientStripes);
+            Http2Streams streams = http2 ? new Http2Streams(clients, http2Connections, http2MaxStreams) : null;
+            Run run = new Run(scenario, clients, readTimeout, bodies, rateLimiter, streams, connections,
+                    latencyStripes);
+
+            if (streams != null) {
+                // the first request of each client upgrades its connection to h2c, before requests are multiplexed
+                System.out.println("Upgrading " + streams);
+                for (int i = 0; i < http2Connections; i++) {
+                    run.get(clients.client(i));
+                }
+                run.reset();
             }
 
-            System.out.printf("%,9.2f %10d %8d %6d %10s%n", perSecond, SUCCESS.get(), TIMEOUT.get(), ERROR.get(),
-                    RESPONSE);
-            lastCount = currentCount;
-            lastRun = now;
-            printCounter++;
-            if (printCounter % printHeaderEvery == 0) {
-                header();
+            double warmupSeconds = 0;
+            if (benchActive && warmup) {
+                warmupSeconds = warmup(run, threadKind, threadCount, new SteadyState(warmupWindows, warmupTolerance),
+                        warmupWindowMillis, warmupMaxSeconds);
+                run.reset();
+            }
+
+            if (!resultsFile.isBlank()) {
+                run.results = new ResultWriter(compare ? targetFile(resultsFile, target) : Path.of(resultsFile));
+            }
+
+            // the connections of the coordinator and of the server sampling do not carry the load
+            run.connections.startExcluding();
+            // start in lockstep with the other workers
+            if ("worker".equalsIgnoreCase(clusterRole)) {
+                run.cluster = ClusterWorker.connect(clusterHost, clusterPort);
+                run.cluster.awaitStart();
+            }
+
+            if (serverStats) {
+                run.server = new ServerStats(
+                        serverBaseUri.isBlank() ? URI.create(targetUri).resolve("/loom").toString() : serverBaseUri,
+                        connectTimeout, readTimeout);
+                System.out.println("Sampling server resources from " + run.server);
+            }
+            run.connections.endExcluding();
+
+            System.out.println("Response bodies " + bodies);
+            // injector overhead measured from now on, leaving out warmup, setup and the sampling of connections
+            ALLOCATIONS.reset();
+            ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+            run.connections.resetSamplingCost();
+            long cpuStart = processCpuNanos();
+            long start = System.nanoTime();
+
+            // start monitoring
+            Monitor monitor = new Monitor(run, monitorPeriodMillis, monitorPrintHeader, monitorPrintHeaderEvery,
+                    monitorChart);
+            Thread monitorThread = new Thread(monitor);
+            monitorThread.setDaemon(true);
+            monitorThread.start();
+
+            long requestCount;
+            FutureTask<List<LoadProfile.Stage>> stages = null;
+            if (profile != null) {
+                // measure the stages from a separate thread
+                run.stageLatency = new LatencyRecorder(latencyStripes);
+                AtomicInteger activeUsers = new AtomicInteger();
+                stages = new FutureTask<>(
+                        () -> followProfile(run, profile, start, activeUsers));
+                Thread.ofPlatform().daemon().name("profile").start(stages);
+                if (openModel) {
+                    requestCount = sendAtProfileRate(run, profile, start);
+                } else {
+                    requestCount = sendWithUserProfile(run, threadKind, profile, start, activeUsers);
+                }
+            } else if (rate > 0) {
+                requestCount = sendAtConstantRate(run, rate, durationSeconds);
+            } else if (engine == Engine.ASYNC) {
+                requestCount = sendAsynchronously(run, asyncWindow, (long) threadCount * repeats,
+                        closedDurationNanos);
+            } else {
+                requestCount = sendInClosedLoop(run, threadKind, threadCount, repeats, closedDurationNanos);
+            }
+
+            monitor.finish();
+
+            if (stages != null) {
+                LoadProfile.print(stages.get(), openModel ? "Rate" : "Users");
+            }
+
+            if (run.cluster != null) {
+                run.cluster.done(requestCount, System.nanoTime() - start, run.latency.total());
+            }
+
+            if (streams != null) {
+                streams.print();
+            }
+
+            long cpuNanos = processCpuNanos() - cpuStart - run.connections.samplingCpuNanos();
+            long allocated = ALLOCATIONS.allocated() - run.connections.samplingAllocated();
+            printInjectorOverhead(requestCount, cpuNanos, allocated);
+
+            // Print throughput
+            double throughput = computeAverageThroughput(requestCount, start);
+            if (benchActive) {
+                System.out.printf("Average throughput is %,9.2f Req/s%n", throughput);
+            }
+            if (run.server != null) {
+                run.server.print(throughput);
+            }
+
+            if (run.results != null) {
+                Map<String, Object> summary = new LinkedHashMap<>();
+                summary.put("target", scenario.toString().strip());
+                summary.put("model", profile != null ? "profile " + profile : openModel ? "open" : "closed");
+                summary.put("engine", engine.name().toLowerCase());
+                summary.put("thread_kind", threadKind.name().toLowerCase());
+                summary.put("threads", threadCount);
+                summary.put("rate", rate);
+                summary.put("clients", clients.toString());
+                summary.put("warmup_s", warmupSeconds);
+                summary.put("elapsed_s", (System.nanoTime() - start) / 1e9);
+                summary.put("requests", requestCount);
+                OutcomeCounters.Counts counts = run.counters.snapshot();
+                summary.put("success", counts.success());
+                summary.put("timeout", counts.timeout());
+                summary.put("error", counts.error());
+                summary.put("throughput", throughput);
+                Histogram latency = run.latency.total();
+                summary.put("p50_ms", LatencyRecorder.millis(latency, 50));
+                summary.put("p90_ms", LatencyRecorder.millis(latency, 90));
+                summary.put("p99_ms", LatencyRecorder.millis(latency, 99));
+                summary.put("p99_9_ms", LatencyRecorder.millis(latency, 99.9));
+                summary.put("max_ms", LatencyRecorder.maxMillis(latency));
+                summary.put("connections_opened", run.connections.opened());
+                summary.put("injector_cpu_ms", TimeUnit.NANOSECONDS.toMillis(cpuNanos));
+                summary.put("injector_allocated_bytes_per_request", allocated / Math.max(1, requestCount));
+                summary.put("body", bodies.toString());
+                run.results.close(summary);
+            }
+
+            clients.close();
+            connections.clientsClosed();
+
+            if (compare) {
+                OutcomeCounters.Counts counts = run.counters.snapshot();
+                comparison.add(targetUri, requestCount, throughput, counts.timeout(), counts.error(),
+                        run.latency.total());
+                if (target < targets.size() - 1) {
+                    System.out.printf("Cooling down for %d s%n", compareCooldownSeconds);
+                    TimeUnit.SECONDS.sleep(compareCooldownSeconds);
+                }
             }
         }
 
-        private void finish() throws InterruptedException {
-            finish = true;
-            finishLatch.await();
-            print();
-            System.out.println("Finished");
+        if (comparison != null) {
+            comparison.print();
         }
+
+    }
+
+    // results.csv becomes results-1.csv for the first target of a comparison
+    private static Path targetFile(String file, int target) {
+        int dot = file.lastIndexOf('.');
+        String suffix = "-" + (target + 1);
+        return Path.of(dot > file.lastIndexOf('/') ? file.substring(0, dot) + suffix + file.substring(dot)
+                : file + suffix);
+    }
+
+    static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+
+    // CPU and threads used by the injector itself, to compare the cost of each way of sending requests
+    private static void printInjectorOverhead(long requestCount, long cpuNanos, long allocated) {
+        System.out.printf("Injector CPU time %,d ms, %,.1f us per request, peak platform threads %,d%n",
+                TimeUnit.NANOSECONDS.toMillis(cpuNanos), cpuNanos / 1_000.0 / Math.max(1, requestCount),
+                ManagementFactory.getThreadMXBean().getPeakThreadCount());
+        System.out.printf("Injector allocated %,d MB, %,d bytes per request%n", allocated / MEGA_BYTE,
+                allocated / Math.max(1, requestCount));
     }
 }
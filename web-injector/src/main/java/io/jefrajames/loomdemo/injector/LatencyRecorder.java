@@ -0,0 +1,96 @@
+package io.jefrajames.loomdemo.injector;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ *
+ * Request latency recorder based on HdrHistogram.
+ *
+ * Injector threads record into striped wait-free recorders, so that recording
+ * neither locks nor allocates. The monitor periodically merges the stripes
+ * into an interval histogram and accumulates it for the whole run.
+ *
+ */
+class LatencyRecorder {
+
+    // Latencies are recorded in microseconds, up to 1 hour
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final Recorder[] recorders;
+
+    // Only used by the monitor
+    private final Histogram stripe = newHistogram();
+    private final Histogram interval = newHistogram();
+    private final Histogram total = newHistogram();
+
+    LatencyRecorder(int stripes) {
+        recorders = new Recorder[Math.max(1, stripes)];
+        for (int i = 0; i < recorders.length; i++) {
+            recorders[i] = new Recorder(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+        }
+    }
+
+    static Histogram newHistogram() {
+        return new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+    }
+
+    // Called by injector threads
+    void record(long latencyNanos) {
+        long micros = Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), HIGHEST_TRACKABLE_MICROS);
+        int index = (int) (Thread.currentThread().threadId() % recorders.length);
+        recorders[index].recordValue(micros);
+    }
+
+    // Merge the stripes into the latencies recorded since the previous call
+    Histogram interval() {
+        interval.reset();
+        for (Recorder recorder : recorders) {
+            recorder.getIntervalHistogramInto(stripe);
+            interval.add(stripe);
+        }
+        total.add(interval);
+        return interval;
+    }
+
+    // Latencies of the whole run, up to the last call to interval()
+    Histogram total() {
+        return total;
+    }
+
+    // Forget everything recorded so far (typically during warmup)
+    void reset() {
+        interval();
+        interval.reset();
+        total.reset();
+    }
+
+    // Compressed form of a histogram, to be sent over the network
+    static byte[] encode(Histogram histogram) {
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        byte[] bytes = new byte[length];
+        buffer.flip();
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    static Histogram decode(byte[] bytes) throws DataFormatException {
+        return Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(bytes), HIGHEST_TRACKABLE_MICROS);
+    }
+
+    // Latency value at a given percentile in milliseconds
+    static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1_000.0;
+    }
+
+    // Maximum latency in milliseconds
+    static double maxMillis(Histogram histogram) {
+        return histogram.getMaxValue() / 1_000.0;
+    }
+}
@@ -0,0 +1,139 @@
+package io.jefrajames.loomdemo.injector;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+import io.helidon.config.Config;
+
+/**
+ *
+ * Load varying over time, either the number of active users in the closed
+ * model or the rate in the open model.
+ *
+ * The run is split into stages (every step-seconds, or before, during and
+ * after the spike) so that throughput and latency can be reported per stage.
+ *
+ */
+class LoadProfile {
+
+    enum Kind {
+        // linear from "from" to "to"
+        RAMP,
+        // from "from" to "to" by equal steps every step-seconds
+        STEP,
+        // "to" during spike-seconds after spike-start-seconds, "from" otherwise
+        SPIKE
+    }
+
+    // Throughput per stage over the previous one below this share of the load increase reveals saturation
+    private static final double KNEE_RATIO = 0.5;
+
+    private final Kind kind;
+    private final int from;
+    private final int to;
+    private final long durationNanos;
+    private final long stepNanos;
+    private final long spikeStartNanos;
+    private final long spikeNanos;
+
+    private LoadProfile(Kind kind, int from, int to, long durationSeconds, long stepSeconds, long spikeStartSeconds,
+            long spikeSeconds) {
+        this.kind = kind;
+        this.from = from;
+        this.to = to;
+        this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+        this.stepNanos = TimeUnit.SECONDS.toNanos(Math.max(1, Math.min(stepSeconds, durationSeconds)));
+        this.spikeStartNanos = TimeUnit.SECONDS.toNanos(spikeStartSeconds);
+        this.spikeNanos = TimeUnit.SECONDS.toNanos(spikeSeconds);
+    }
+
+    static LoadProfile of(Config config) {
+        Kind kind = Kind.valueOf(config.get("kind").asString().get().toUpperCase());
+        long durationSeconds = config.get("duration-seconds").asLong().orElse(60L);
+        return new LoadProfile(kind,
+                config.get("from").asInt().orElse(1),
+                config.get("to").asInt().orElse(100),
+                durationSeconds,
+                config.get("step-seconds").asLong().orElse(10L),
+                config.get("spike-start-seconds").asLong().orElse(durationSeconds / 3),
+                config.get("spike-seconds").asLong().orElse(durationSeconds / 3));
+    }
+
+    // Target load at elapsed nanos since the start
+    int target(long elapsed) {
+        elapsed = Math.min(Math.max(elapsed, 0), durationNanos);
+        return switch (kind) {
+            case RAMP -> (int) (from + (to - from) * elapsed / durationNanos);
+            case STEP -> {
+                int steps = stageCount();
+                yield steps == 1 ? to : from + (to - from) * Math.min(stage(elapsed), steps - 1) / (steps - 1);
+            }
+            case SPIKE -> stage(elapsed) == 1 ? to : from;
+        };
+    }
+
+    // Stage at elapsed nanos since the start
+    int stage(long elapsed) {
+        return switch (kind) {
+            case RAMP, STEP -> (int) Math.min(elapsed / stepNanos, stageCount() - 1);
+            case SPIKE -> elapsed < spikeStartNanos ? 0 : elapsed < spikeStartNanos + spikeNanos ? 1 : 2;
+        };
+    }
+
+    int stageCount() {
+        return switch (kind) {
+            case RAMP, STEP -> (int) Math.max(1, durationNanos / stepNanos);
+            case SPIKE -> 3;
+        };
+    }
+
+    long durationNanos() {
+        return durationNanos;
+    }
+
+    int max() {
+        return Math.max(from, to);
+    }
+
+    @Override
+    public String toString() {
+        return switch (kind) {
+            case RAMP -> String.format("ramp from %,d to %,d in %,d s", from, to,
+                    TimeUnit.NANOSECONDS.toSeconds(durationNanos));
+            case STEP -> String.format("steps from %,d to %,d every %,d s", from, to,
+                    TimeUnit.NANOSECONDS.toSeconds(stepNanos));
+            case SPIKE -> String.format("spike from %,d to %,d during %,d s", from, to,
+                    TimeUnit.NANOSECONDS.toSeconds(spikeNanos));
+        };
+    }
+
+    /**
+     * What has been measured during a stage
+     */
+    record Stage(int index, int target, double throughput, long timeout, long error, Histogram latency) {
+    }
+
+    // Side-by-side stages, flagging the first one where throughput stops following the load
+    static void print(List<Stage> stages, String unit) {
+        System.out.printf("Stage %9s    Req/s  Timeout  Error      p50      p90      p99    p99.9      max%n", unit);
+        boolean kneeFound = false;
+        Stage previous = null;
+        for (Stage stage : stages) {
+            boolean knee = false;
+            if (!kneeFound && previous != null && stage.target() > previous.target() && previous.throughput() > 0) {
+                double loadIncrease = (double) stage.target() / previous.target() - 1;
+                double throughputIncrease = stage.throughput() / previous.throughput() - 1;
+                knee = kneeFound = throughputIncrease < loadIncrease * KNEE_RATIO;
+            }
+            Histogram latency = stage.latency();
+            System.out.printf("%5d %,9d %,8.2f %8d %6d %8.2f %8.2f %8.2f %8.2f %8.2f%s%n", stage.index(),
+                    stage.target(), stage.throughput(), stage.timeout(), stage.error(),
+                    LatencyRecorder.millis(latency, 50), LatencyRecorder.millis(latency, 90),
+                    LatencyRecorder.millis(latency, 99), LatencyRecorder.millis(latency, 99.9),
+                    LatencyRecorder.maxMillis(latency), knee ? "  <- saturation" : "");
+            previous = stage;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package io.jefrajames.loomdemo.injector;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ *
+ * Displays the throughput, outcomes and latency of a run every period, and
+ * their summary at the end of the run.
+ *
+ */
+class Monitor implements Runnable {
+
+    // Number of periods charted on each row, and at the end of the run
+    private static final int CHART_WIDTH = 20;
+    private static final int RUN_CHART_WIDTH = 100;
+    private static final int MEGA_BYTE = 1024 * 1024;
+
+    private final Run run;
+    private final long periodMillis;
+    private final boolean printHeader;
+    private final int printHeaderEvery;
+    private final Sparkline chart;
+    private final List<Double> throughputs = new ArrayList<>();
+    private volatile boolean finish;
+    private final CountDownLatch finishLatch = new CountDownLatch(1);
+    private OutcomeCounters.Counts last = OutcomeCounters.ZERO;
+    private long lastRun;
+    private long lastCpu;
+    private long firstRun;
+    private int printCounter;
+
+    Monitor(Run run, long periodMillis, boolean printHeader, int printHeaderEvery, boolean chart) {
+        this.run = run;
+        this.periodMillis = periodMillis;
+        this.printHeader = printHeader;
+        this.printHeaderEvery = printHeaderEvery;
+        this.chart = chart ? new Sparkline(CHART_WIDTH) : null;
+    }
+
+    @Override
+    public void run() {
+        System.out.println("Monitoring requests to " + run.scenario);
+
+        if (printHeader) {
+            header();
+        }
+
+        if (run.server != null) {
+            run.server.sample();
+        }
+        last = run.counters.snapshot();
+        lastRun = System.nanoTime();
+        firstRun = lastRun;
+        lastCpu = injectorCpuNanos();
+        while (!finish) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(periodMillis);
+            } catch (InterruptedException e) {
+                // we were interrupted, no need to move forward
+                return;
+            }
+            if (!finish) {
+                print();
+            }
+        }
+        finishLatch.countDown();
+    }
+
+    private void header() {
+        if (printHeader) {
+            System.out.println(
+                    "    Req/s    Success  Timeout  Error  Conns  Opened      p50      p90      p99    p99.9      max "
+                            + (run.server != null ? run.server.header() + " " : "")
+                            + (chart != null ? String.format("%-" + CHART_WIDTH + "s ", "Trend") : "")
+                            + "  Response");
+        }
+    }
+
+    private void print() {
+        // one consistent snapshot of the counters per period
+        OutcomeCounters.Counts counts = run.counters.snapshot();
+        long now = System.nanoTime();
+
+        OutcomeCounters.Counts delta = counts.minus(last);
+        long timeLambda = Math.max(1, now - lastRun);
+        double perSecond = delta.success() * 1e9 / timeLambda;
+        throughputs.add(perSecond);
+        if (chart != null) {
+            chart.add(perSecond);
+        }
+
+        Histogram latency = run.latency.interval();
+        run.connections.sample();
+        System.out.printf("%,9.2f %10d %8d %6d %6d %7d %8.2f %8.2f %8.2f %8.2f %8.2f %s%s%10s%n", perSecond,
+                counts.success(), counts.timeout(), counts.error(), run.connections.open(),
+                run.connections.opened(), LatencyRecorder.millis(latency, 50), LatencyRecorder.millis(latency, 90),
+                LatencyRecorder.millis(latency, 99), LatencyRecorder.millis(latency, 99.9),
+                LatencyRecorder.maxMillis(latency), run.server != null ? run.server.columns(perSecond) + " " : "",
+                chart != null ? chart + " " : "", run.response());
+        if (run.server != null) {
+            // displayed at the next period
+            run.server.sample();
+        }
+        if (run.scenario.isMixed()) {
+            printEndpoints(timeLambda);
+        }
+        if (run.results != null) {
+            long cpu = injectorCpuNanos();
+            double cpuPercent = 100.0 * (cpu - lastCpu) / timeLambda / Runtime.getRuntime().availableProcessors();
+            run.results.tick(System.currentTimeMillis(), (now - firstRun) / 1e9, perSecond, delta.success(),
+                    delta.timeout(), delta.error(), latency, cpuPercent,
+                    ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / MEGA_BYTE);
+            lastCpu = cpu;
+        }
+        if (run.cluster != null) {
+            run.cluster.tick(delta.success(), delta.timeout(), delta.error(), latency);
+        }
+        last = counts;
+        lastRun = now;
+        printCounter++;
+        if (printCounter % printHeaderEvery == 0) {
+            header();
+        }
+    }
+
+    // Sampling the connections is left out of the injector CPU
+    private long injectorCpuNanos() {
+        return HttpInjector.processCpuNanos() - run.connections.samplingCpuNanos();
+    }
+
+    // One row per endpoint of the scenario
+    private void printEndpoints(long timeLambda) {
+        for (Scenario.Endpoint endpoint : run.scenario.endpoints()) {
+            long success = endpoint.success.sum();
+            double perSecond = (success - endpoint.lastSuccess) * 1e9 / timeLambda;
+            Histogram latency = endpoint.latency.interval();
+            System.out.printf("%,9.2f %10d %8d %6d %14s %8.2f %8.2f %8.2f %8.2f %8.2f %s%s%10s%n", perSecond,
+                    success, endpoint.timeout.sum(), endpoint.error.sum(), "",
+                    LatencyRecorder.millis(latency, 50), LatencyRecorder.millis(latency, 90),
+                    LatencyRecorder.millis(latency, 99), LatencyRecorder.millis(latency, 99.9),
+                    LatencyRecorder.maxMillis(latency), run.server != null ? run.server.blank() + " " : "",
+                    chart != null ? " ".repeat(CHART_WIDTH + 1) : "", endpoint.name());
+            endpoint.lastSuccess = success;
+        }
+    }
+
+    void finish() throws InterruptedException {
+        finish = true;
+        finishLatch.await();
+        // the final counts, whatever the sampling period
+        run.connections.sampleNow();
+        print();
+        Histogram latency = run.latency.total();
+        System.out.printf("Latency over %,d requests in ms: p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f%n",
+                latency.getTotalCount(),
+                LatencyRecorder.millis(latency, 50), LatencyRecorder.millis(latency, 90),
+                LatencyRecorder.millis(latency, 99), LatencyRecorder.millis(latency, 99.9),
+                LatencyRecorder.maxMillis(latency));
+        if (run.scenario.isMixed()) {
+            for (Scenario.Endpoint endpoint : run.scenario.endpoints()) {
+                Histogram endpointLatency = endpoint.latency.total();
+                System.out.printf("  %-20s %,d requests p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f%n",
+                        endpoint.name(), endpointLatency.getTotalCount(),
+                        LatencyRecorder.millis(endpointLatency, 50), LatencyRecorder.millis(endpointLatency, 90),
+                        LatencyRecorder.millis(endpointLatency, 99),
+                        LatencyRecorder.millis(endpointLatency, 99.9),
+                        LatencyRecorder.maxMillis(endpointLatency));
+            }
+        }
+        if (chart != null && !throughputs.isEmpty()) {
+            double[] values = throughputs.stream().mapToDouble(Double::doubleValue).toArray();
+            System.out.printf("Throughput every %,d ms, min %,.2f max %,.2f Req/s%n  %s%n", periodMillis,
+                    Arrays.stream(values).min().getAsDouble(), Arrays.stream(values).max().getAsDouble(),
+                    Sparkline.render(values, RUN_CHART_WIDTH));
+        }
+        if (run.connections.isAvailable()) {
+            System.out.printf("TCP connections opened %,d, %,.1f requests per connection%n",
+                    run.connections.opened(),
+                    (double) latency.getTotalCount() / Math.max(1, run.connections.opened()));
+        }
+        System.out.println("Finished");
+    }
+}
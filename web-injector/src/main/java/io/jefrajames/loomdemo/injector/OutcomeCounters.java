@@ -0,0 +1,111 @@
+package io.jefrajames.loomdemo.injector;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * Counts the outcomes of requests: success, timeout and error.
+ *
+ * Injector threads add to striped cells, each one packing the three counters
+ * in a single long, so that counting is one atomic add without contention.
+ * Readers drain the cells with an atomic swap, so that the three counters of
+ * a snapshot are consistent, unlike three separate atomics read one after the
+ * other.
+ *
+ * A counter close to overflowing its bits spills the whole cell into
+ * overflow adders. This only happens after about a million requests on the
+ * same cell between two snapshots, and only then may a snapshot be off by
+ * the requests being spilled.
+ *
+ */
+class OutcomeCounters {
+
+    enum Outcome {
+        SUCCESS, TIMEOUT, ERROR
+    }
+
+    record Counts(long success, long timeout, long error) {
+
+        long total() {
+            return success + timeout + error;
+        }
+
+        Counts minus(Counts other) {
+            return new Counts(success - other.success, timeout - other.timeout, error - other.error);
+        }
+    }
+
+    static final Counts ZERO = new Counts(0, 0, 0);
+
+    // Bits of each counter in a cell: success, timeout, error
+    private static final int BITS = 21;
+    private static final long MASK = (1L << BITS) - 1;
+    private static final long SPILL = 1L << (BITS - 1);
+    // One cell per 64 bytes cache line
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells;
+    private final int stripes;
+    private final LongAdder[] spilled = { new LongAdder(), new LongAdder(), new LongAdder() };
+
+    // Drained totals, guarded by lock (no synchronized to avoid pinning Virtual Threads)
+    private final ReentrantLock lock = new ReentrantLock();
+    private long success;
+    private long timeout;
+    private long error;
+
+    OutcomeCounters(int stripes) {
+        this.stripes = Math.max(1, stripes);
+        this.cells = new AtomicLongArray(this.stripes * PADDING);
+    }
+
+    // Called by injector threads
+    void add(Outcome outcome) {
+        int index = (int) (Thread.currentThread().threadId() % stripes) * PADDING;
+        int shift = outcome.ordinal() * BITS;
+        long cell = cells.addAndGet(index, 1L << shift);
+        if (((cell >>> shift) & MASK) >= SPILL) {
+            cell = cells.getAndSet(index, 0);
+            for (int i = 0; i < spilled.length; i++) {
+                spilled[i].add((cell >>> (i * BITS)) & MASK);
+            }
+        }
+    }
+
+    // Counts since the last reset
+    Counts snapshot() {
+        lock.lock();
+        try {
+            for (int i = 0; i < stripes; i++) {
+                long cell = cells.getAndSet(i * PADDING, 0);
+                success += cell & MASK;
+                timeout += (cell >>> BITS) & MASK;
+                error += (cell >>> (2 * BITS)) & MASK;
+            }
+            success += spilled[0].sumThenReset();
+            timeout += spilled[1].sumThenReset();
+            error += spilled[2].sumThenReset();
+            return new Counts(success, timeout, error);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long success() {
+        return snapshot().success();
+    }
+
+    void reset() {
+        lock.lock();
+        try {
+            snapshot();
+            success = 0;
+            timeout = 0;
+            error = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
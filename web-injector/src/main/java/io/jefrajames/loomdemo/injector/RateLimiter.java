@@ -0,0 +1,81 @@
+package io.jefrajames.loomdemo.injector;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ *
+ * Lock-free token bucket capping a request rate.
+ *
+ * Instead of a token count refilled by a timer, the bucket keeps the time at
+ * which the next token is available. Each request reserves a token with a
+ * single CAS on that time and parks until then, so that thousands of Virtual
+ * Threads share the limiter without a lock. Up to burst tokens can be taken at
+ * once after an idle period.
+ *
+ */
+class RateLimiter {
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong nextToken = new AtomicLong(System.nanoTime());
+
+    RateLimiter(double perSecond, int burst) {
+        if (perSecond <= 0) {
+            throw new IllegalArgumentException("Rate limit must be positive: " + perSecond);
+        }
+        this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond));
+        this.burstNanos = intervalNanos * Math.max(0, burst - 1);
+    }
+
+    // Wait for a token, the token reserved being lost when interrupted
+    void acquire() throws InterruptedException {
+        long now = System.nanoTime();
+        long next;
+        long token;
+        do {
+            next = nextToken.get();
+            // tokens not taken during an idle period are lost, beyond the burst
+            token = Math.max(next, now - burstNanos);
+        } while (!nextToken.compareAndSet(next, token + intervalNanos));
+
+        long wait = token - now;
+        while (wait > 0) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            LockSupport.parkNanos(wait);
+            wait = token - System.nanoTime();
+        }
+    }
+
+    // Take a token only if one is available now
+    boolean tryAcquire() {
+        long now = System.nanoTime();
+        long next;
+        long token;
+        do {
+            next = nextToken.get();
+            token = Math.max(next, now - burstNanos);
+            if (token - now > 0) {
+                return false;
+            }
+        } while (!nextToken.compareAndSet(next, token + intervalNanos));
+        return true;
+    }
+
+    // Time until the next token is available, 0 if it already is
+    long nanosUntilToken() {
+        return Math.max(0, nextToken.get() - System.nanoTime());
+    }
+
+    double perSecond() {
+        return (double) TimeUnit.SECONDS.toNanos(1) / intervalNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%,.1f Req/s", perSecond());
+    }
+}
@@ -0,0 +1,92 @@
+package io.jefrajames.loomdemo.injector;
+
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ *
+ * Chooses how response bodies are handled.
+ *
+ * Reading each body into a String only to throw it away costs the injector
+ * allocations and GC, which skew its own latency at high throughput. Bodies
+ * can instead be discarded or folded into a checksum straight from the
+ * buffers of the HTTP client, while an occasional response is still read as a
+ * String to be displayed.
+ *
+ */
+class ResponseBodies {
+
+    enum Mode {
+        // read every body into a String
+        STRING,
+        // drop the body
+        DISCARD,
+        // fold the bytes of the body into a checksum
+        CHECKSUM
+    }
+
+    private static final BodyHandler<Long> CHECKSUM = info -> BodySubscribers.fromSubscriber(new Checksum(),
+            Checksum::value);
+
+    private final Mode mode;
+    private final int sampleEvery;
+
+    ResponseBodies(Mode mode, int sampleEvery) {
+        this.mode = mode;
+        this.sampleEvery = Math.max(1, sampleEvery);
+    }
+
+    // Handler for the next request: one in sampleEvery is read as a String
+    BodyHandler<?> handler() {
+        if (mode == Mode.STRING || ThreadLocalRandom.current().nextInt(sampleEvery) == 0) {
+            return BodyHandlers.ofString();
+        }
+        return mode == Mode.DISCARD ? BodyHandlers.discarding() : CHECKSUM;
+    }
+
+    @Override
+    public String toString() {
+        return mode == Mode.STRING ? "read as strings"
+                : String.format("%s, one in %,d read as string", mode.name().toLowerCase(), sampleEvery);
+    }
+
+    /**
+     * Reads the body buffers in place
+     */
+    private static final class Checksum implements Flow.Subscriber<List<ByteBuffer>> {
+        private long value;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            for (ByteBuffer buffer : buffers) {
+                while (buffer.hasRemaining()) {
+                    value = 31 * value + buffer.get();
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            // reported through the response future
+        }
+
+        @Override
+        public void onComplete() {
+            // value is complete
+        }
+
+        long value() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package io.jefrajames.loomdemo.injector;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ *
+ * Writes each monitor tick as a CSV or JSON lines time series, and a JSON
+ * summary at the end of the run.
+ *
+ * Lines are written by a background thread through a buffered writer, so that
+ * a slow disk never stalls the monitor, let alone the injector threads.
+ *
+ */
+class ResultWriter {
+
+    enum Format {
+        CSV, JSON
+    }
+
+    private static final String CSV_HEADER = "timestamp,elapsed_s,throughput,success,timeout,error,"
+            + "p50_ms,p90_ms,p99_ms,p99_9_ms,max_ms,injector_cpu_percent,injector_heap_mb";
+
+    // Marks the end of the time series, lines are never empty
+    private static final String END = "";
+
+    private final Path file;
+    private final Format format;
+    private final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+    private final Thread writer;
+
+    ResultWriter(Path file) {
+        this.file = file;
+        this.format = file.toString().endsWith(".csv") ? Format.CSV : Format.JSON;
+        if (format == Format.CSV) {
+            lines.add(CSV_HEADER);
+        }
+        this.writer = Thread.ofPlatform().daemon().name("result-writer").start(this::write);
+    }
+
+    private void write() {
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            while (true) {
+                String line = lines.take();
+                if (line.isEmpty()) {
+                    return;
+                }
+                out.write(line);
+                out.newLine();
+                if (lines.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            System.err.printf("Unable to write results to %s: %s%n", file, e);
+        } catch (InterruptedException e) {
+            // stop writing
+        }
+    }
+
+    // Called by the monitor: only queues the line
+    void tick(long timestamp, double elapsedSeconds, double throughput, long success, long timeout, long error,
+            Histogram latency, double cpuPercent, long heapMegaBytes) {
+        double p50 = LatencyRecorder.millis(latency, 50);
+        double p90 = LatencyRecorder.millis(latency, 90);
+        double p99 = LatencyRecorder.millis(latency, 99);
+        double p999 = LatencyRecorder.millis(latency, 99.9);
+        double max = LatencyRecorder.maxMillis(latency);
+        lines.add(switch (format) {
+            case CSV -> String.format(Locale.ROOT,
+                    "%d,%.3f,%.2f,%d,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.1f,%d",
+                    timestamp, elapsedSeconds, throughput, success, timeout, error, p50, p90, p99, p999, max,
+                    cpuPercent, heapMegaBytes);
+            case JSON -> String.format(Locale.ROOT,
+                    "{\"timestamp\":%d,\"elapsed_s\":%.3f,\"throughput\":%.2f,\"success\":%d,\"timeout\":%d,"
+                            + "\"error\":%d,\"p50_ms\":%.3f,\"p90_ms\":%.3f,\"p99_ms\":%.3f,\"p99_9_ms\":%.3f,"
+                            + "\"max_ms\":%.3f,\"injector_cpu_percent\":%.1f,\"injector_heap_mb\":%d}",
+                    timestamp, elapsedSeconds, throughput, success, timeout, error, p50, p90, p99, p999, max,
+                    cpuPercent, heapMegaBytes);
+        });
+    }
+
+    // Wait for the time series to be written, then write the summary next to it
+    void close(Map<String, Object> summary) throws InterruptedException {
+        lines.add(END);
+        writer.join();
+
+        String name = file.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        Path summaryFile = file.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + "-summary.json");
+        try {
+            Files.writeString(summaryFile, toJson(summary) + System.lineSeparator());
+            System.out.printf("Results written to %s and %s%n", file, summaryFile);
+        } catch (IOException e) {
+            System.err.printf("Unable to write summary to %s: %s%n", summaryFile, e);
+        }
+    }
+
+    // Flat JSON object of numbers and strings
+    private static String toJson(Map<String, Object> values) {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            if (json.length() > 1) {
+                json.append(",");
+            }
+            json.append(System.lineSeparator()).append("  ").append(quote(entry.getKey())).append(": ");
+            Object value = entry.getValue();
+            if (value instanceof Double d) {
+                json.append(String.format(Locale.ROOT, "%.3f", d));
+            } else if (value instanceof Number) {
+                json.append(value);
+            } else {
+                json.append(quote(String.valueOf(value)));
+            }
+        }
+        return json.append(System.lineSeparator()).append("}").toString();
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+}
@@ -0,0 +1,158 @@
+package io.jefrajames.loomdemo.injector;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.CompletionException;
+
+/**
+ *
+ * State of a test run: where requests are sent, how they are limited, and
+ * what is measured about them.
+ *
+ * The engines of HttpInjector send their requests through a run and the
+ * monitor reads its counters, so that nothing is left over from one run to the
+ * next, for instance when comparing several targets.
+ *
+ */
+class Run {
+
+    // Start of a request whose latency is measured from its actual send time
+    static final long WHEN_SENT = Long.MIN_VALUE;
+
+    final Scenario scenario;
+    final ClientPool clients;
+    final int readTimeout;
+    final ResponseBodies bodies;
+    final OutcomeCounters counters;
+    final LatencyRecorder latency;
+    // Shared by the runs of a comparison
+    final ConnectionStats connections;
+    // Only set when the whole run is capped at a given rate
+    final RateLimiter rateLimiter;
+    // Only set with HTTP/2
+    final Http2Streams streams;
+
+    // Only set when server resources are sampled
+    ServerStats server;
+    // Only used with a load profile
+    LatencyRecorder stageLatency;
+    // Only used when results are exported
+    ResultWriter results;
+    // Only used when driven by a coordinator
+    ClusterWorker cluster;
+
+    // Last response body read, only displayed by the monitor
+    private String response;
+
+    Run(Scenario scenario, ClientPool clients, int readTimeout, ResponseBodies bodies, RateLimiter rateLimiter,
+            Http2Streams streams, ConnectionStats connections, int latencyStripes) {
+        this.scenario = scenario;
+        this.clients = clients;
+        this.readTimeout = readTimeout;
+        this.bodies = bodies;
+        this.rateLimiter = rateLimiter;
+        this.streams = streams;
+        this.connections = connections;
+        // Per-thread latency recorders, bounded to keep memory under control with Virtual Threads
+        this.latency = new LatencyRecorder(latencyStripes);
+        this.counters = new OutcomeCounters(latencyStripes);
+    }
+
+    String get(HttpClient client) {
+        return get(client, WHEN_SENT);
+    }
+
+    // Latency is measured from start, which may be earlier than the actual send time, or from the send
+    // time after waiting for the rate limits with WHEN_SENT
+    String get(HttpClient client, long start) {
+
+        Scenario.Endpoint endpoint;
+        try {
+            endpoint = scenario.acquire();
+        } catch (InterruptedException e) {
+            // interrupted while all endpoints were at their limits, counted against one of them
+            return complete(scenario.next(), null, e, start == WHEN_SENT ? System.nanoTime() : start);
+        }
+        try {
+            if (rateLimiter != null) {
+                rateLimiter.acquire();
+            }
+            return send(client, endpoint, start == WHEN_SENT ? System.nanoTime() : start);
+        } catch (InterruptedException e) {
+            // not sent, rather than beyond the rate limit
+            return complete(endpoint, null, e, start == WHEN_SENT ? System.nanoTime() : start);
+        } finally {
+            scenario.release(endpoint);
+        }
+    }
+
+    private String send(HttpClient client, Scenario.Endpoint endpoint, long start) {
+        HttpResponse<?> response = null;
+        try {
+            if (streams == null) {
+                response = client.send(endpoint.newRequest(readTimeout), bodies.handler());
+            } else {
+                long acquired = streams.acquire(client);
+                try {
+                    response = client.send(endpoint.newRequest(readTimeout), bodies.handler());
+                } finally {
+                    streams.release(client, response, acquired);
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            return complete(endpoint, null, e, start);
+        }
+        return complete(endpoint, response, null, start);
+    }
+
+    // Account for the outcome of a request, error being null on response
+    String complete(Scenario.Endpoint endpoint, HttpResponse<?> response, Throwable error, long start) {
+        long elapsed = System.nanoTime() - start;
+        latency.record(elapsed);
+        endpoint.latency.record(elapsed);
+        if (stageLatency != null) {
+            stageLatency.record(elapsed);
+        }
+
+        if (error instanceof CompletionException) {
+            error = error.getCause();
+        }
+        if (error instanceof HttpTimeoutException) {
+            counters.add(OutcomeCounters.Outcome.TIMEOUT);
+            endpoint.timeout.increment();
+            return null;
+        }
+        if (error != null || response.statusCode() / 100 != 2) {
+            counters.add(OutcomeCounters.Outcome.ERROR);
+            endpoint.error.increment();
+            return null;
+        }
+        counters.add(OutcomeCounters.Outcome.SUCCESS);
+        endpoint.success.increment();
+        // only sampled bodies are read as strings
+        if (response.body() instanceof String body) {
+            this.response = body;
+            return body;
+        }
+        return null;
+    }
+
+    String response() {
+        return response;
+    }
+
+    // Forget the requests sent so far
+    void reset() {
+        counters.reset();
+        latency.reset();
+        connections.reset();
+        if (streams != null) {
+            streams.reset();
+        }
+        for (Scenario.Endpoint endpoint : scenario.endpoints()) {
+            endpoint.reset();
+        }
+    }
+}
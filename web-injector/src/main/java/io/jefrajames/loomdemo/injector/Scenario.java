@@ -0,0 +1,349 @@
+package io.jefrajames.loomdemo.injector;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.helidon.config.Config;
+
+/**
+ *
+ * A mix of weighted requests sent to the server.
+ *
+ * Each request picks an endpoint at random according to the weights, using an
+ * alias table (Vose's method) so that picking costs two random numbers
+ * whatever the number of endpoints.
+ *
+ * Paths and bodies are templates where {random} is replaced by a random number
+ * between 1 and random-max, and {seq} by a number unique to the injector.
+ *
+ * An endpoint can be capped at a given rate and at a given number of requests
+ * in flight, whatever its weight. A request picking an endpoint at its limits
+ * is sent to another one instead, so that a capped endpoint never holds back
+ * the others: it only waits when all endpoints are at their limits.
+ *
+ */
+class Scenario {
+
+    // Unique numbers, for instance to create new entities
+    private static final AtomicLong SEQUENCE = new AtomicLong(1_000);
+    // Picks by weight before looking for any endpoint below its limits, per endpoint
+    private static final int WEIGHTED_ATTEMPTS = 4;
+    // Longest wait when all endpoints are at their limits, usually ended earlier by a release or a new token
+    private static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Endpoint[] endpoints;
+    private final double[] probabilities;
+    private final int[] aliases;
+    private final boolean limited;
+    // Requests waiting for an endpoint below its limits, signaled when a request in flight completes
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private Scenario(List<Endpoint> endpoints) {
+        this.endpoints = endpoints.toArray(Endpoint[]::new);
+        int count = this.endpoints.length;
+        this.probabilities = new double[count];
+        this.aliases = new int[count];
+
+        double totalWeight = endpoints.stream().mapToDouble(Endpoint::weight).sum();
+        double[] scaled = new double[count];
+        Deque<Integer> small = new ArrayDeque<>();
+        Deque<Integer> large = new ArrayDeque<>();
+        for (int i = 0; i < count; i++) {
+            scaled[i] = this.endpoints[i].weight() * count / totalWeight;
+            (scaled[i] < 1.0 ? small : large).push(i);
+        }
+        while (!small.isEmpty() && !large.isEmpty()) {
+            int less = small.pop();
+            int more = large.pop();
+            probabilities[less] = scaled[less];
+            aliases[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1.0;
+            (scaled[more] < 1.0 ? small : large).push(more);
+        }
+        // Remaining ones are full, up to rounding errors
+        while (!large.isEmpty()) {
+            probabilities[large.pop()] = 1.0;
+        }
+        while (!small.isEmpty()) {
+            probabilities[small.pop()] = 1.0;
+        }
+        this.limited = endpoints.stream().anyMatch(endpoint -> endpoint.rateLimiter != null
+                || endpoint.concurrency != null);
+    }
+
+    // A single endpoint called with GET
+    static Scenario of(String uri, int latencyStripes) {
+        return new Scenario(List.of(new Endpoint(uri, uri, 1, "GET", null, null, 100, 0, 1, 0, latencyStripes)));
+    }
+
+    // Endpoints defined by the requests list of a scenario configuration, paths being relative to baseUri
+    static Scenario of(Config config, String baseUri, int latencyStripes) {
+        URI base = URI.create(config.get("base-uri").asString().orElse(baseUri));
+        // Paths may be templates, hence not valid URIs: they are resolved against the server root
+        String root = base.getScheme() + "://" + base.getRawAuthority();
+        List<Endpoint> endpoints = config.get("requests").asNodeList().orElse(List.of()).stream()
+                .map(request -> new Endpoint(
+                        request.get("name").asString().orElse(request.get("path").asString().get()),
+                        root + request.get("path").asString().get(),
+                        request.get("weight").asDouble().orElse(1.0),
+                        request.get("method").asString().orElse("GET").toUpperCase(),
+                        request.get("body").asString().orElse(null),
+                        request.get("content-type").asString().orElse("application/json"),
+                        request.get("random-max").asInt().orElse(100),
+                        request.get("rate-limit").asDouble().orElse(0.0),
+                        request.get("rate-limit-burst").asInt().orElse(1),
+                        request.get("max-concurrency").asInt().orElse(0),
+                        latencyStripes))
+                .toList();
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("No request defined in scenario " + config.key());
+        }
+        return new Scenario(endpoints);
+    }
+
+    // Pick an endpoint according to the weights
+    Endpoint next() {
+        if (endpoints.length == 1) {
+            return endpoints[0];
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int index = random.nextInt(endpoints.length);
+        return random.nextDouble() < probabilities[index] ? endpoints[index] : endpoints[aliases[index]];
+    }
+
+    // Pick an endpoint according to the weights among those whose limits allow a new request now, waiting
+    // only when all of them are at their limits. The endpoint must be released once the request is complete.
+    Endpoint acquire() throws InterruptedException {
+        if (!limited) {
+            return next();
+        }
+        for (int i = 0; i < WEIGHTED_ATTEMPTS * endpoints.length; i++) {
+            Endpoint endpoint = next();
+            if (endpoint.tryAcquire()) {
+                return endpoint;
+            }
+        }
+
+        // Counted as waiting before the last look, so that a release in between signals it
+        waiting.incrementAndGet();
+        lock.lock();
+        try {
+            while (true) {
+                Endpoint endpoint = tryAcquireAny();
+                if (endpoint != null) {
+                    return endpoint;
+                }
+                released.awaitNanos(nanosUntilToken());
+            }
+        } finally {
+            lock.unlock();
+            waiting.decrementAndGet();
+        }
+    }
+
+    void release(Endpoint endpoint) {
+        if (endpoint.release() && waiting.get() > 0) {
+            lock.lock();
+            try {
+                released.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // First endpoint below its limits, starting from a random one
+    private Endpoint tryAcquireAny() {
+        int first = ThreadLocalRandom.current().nextInt(endpoints.length);
+        for (int i = 0; i < endpoints.length; i++) {
+            Endpoint endpoint = endpoints[(first + i) % endpoints.length];
+            if (endpoint.tryAcquire()) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    // Time until the next token of the rate limited endpoints, releases being signaled
+    private long nanosUntilToken() {
+        long wait = MAX_WAIT_NANOS;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.rateLimiter != null) {
+                wait = Math.min(wait, endpoint.rateLimiter.nanosUntilToken());
+            }
+        }
+        return Math.max(1, wait);
+    }
+
+    Endpoint[] endpoints() {
+        return endpoints;
+    }
+
+    boolean isMixed() {
+        return endpoints.length > 1;
+    }
+
+    @Override
+    public String toString() {
+        if (!isMixed()) {
+            return endpoints[0].name();
+        }
+        StringBuilder description = new StringBuilder();
+        for (Endpoint endpoint : endpoints) {
+            description.append(String.format("%n  %5.1f%% %s %s", 100.0 * endpoint.weight() / totalWeight(),
+                    endpoint.method(), endpoint.uri()));
+            if (endpoint.rateLimiter != null) {
+                description.append(" at most ").append(endpoint.rateLimiter);
+            }
+            if (endpoint.concurrency != null) {
+                description.append(String.format(" at most %,d in flight", endpoint.maxConcurrency));
+            }
+        }
+        return description.toString();
+    }
+
+    private double totalWeight() {
+        double total = 0;
+        for (Endpoint endpoint : endpoints) {
+            total += endpoint.weight();
+        }
+        return total;
+    }
+
+    /**
+     * An endpoint of the scenario with its own counters
+     */
+    static final class Endpoint {
+        private final String name;
+        private final String uri;
+        private final double weight;
+        private final String method;
+        private final String body;
+        private final String contentType;
+        private final int randomMax;
+        private final boolean template;
+        private final URI fixedUri;
+        private final RateLimiter rateLimiter;
+        private final Semaphore concurrency;
+        private final int maxConcurrency;
+
+        final LongAdder success = new LongAdder();
+        final LongAdder timeout = new LongAdder();
+        final LongAdder error = new LongAdder();
+        final LatencyRecorder latency;
+
+        // Only used by the monitor
+        long lastSuccess;
+
+        private Endpoint(String name, String uri, double weight, String method, String body, String contentType,
+                int randomMax, double rateLimit, int burst, int maxConcurrency, int latencyStripes) {
+            this.name = name;
+            this.uri = uri;
+            this.weight = weight;
+            this.method = method;
+            this.body = body;
+            this.contentType = contentType;
+            this.randomMax = randomMax;
+            this.template = isTemplate(uri) || isTemplate(body);
+            this.fixedUri = isTemplate(uri) ? null : URI.create(uri);
+            this.latency = new LatencyRecorder(latencyStripes);
+            this.rateLimiter = rateLimit > 0 ? new RateLimiter(rateLimit, burst) : null;
+            this.maxConcurrency = maxConcurrency;
+            this.concurrency = maxConcurrency > 0 ? new Semaphore(maxConcurrency) : null;
+        }
+
+        // Takes a slot for a new request if the limits of the endpoint allow it now
+        private boolean tryAcquire() {
+            if (concurrency != null && !concurrency.tryAcquire()) {
+                return false;
+            }
+            if (rateLimiter != null && !rateLimiter.tryAcquire()) {
+                if (concurrency != null) {
+                    concurrency.release();
+                }
+                return false;
+            }
+            return true;
+        }
+
+        // Called once the request acquired is complete, returns whether a request in flight was released
+        private boolean release() {
+            if (concurrency != null) {
+                concurrency.release();
+                return true;
+            }
+            return false;
+        }
+
+        // Forget the requests sent so far, typically during warmup
+        void reset() {
+            success.reset();
+            timeout.reset();
+            error.reset();
+            latency.reset();
+            lastSuccess = 0;
+        }
+
+        private static boolean isTemplate(String value) {
+            return value != null && (value.contains("{random}") || value.contains("{seq}"));
+        }
+
+        HttpRequest newRequest(int readTimeout) {
+            URI requestUri = fixedUri;
+            String requestBody = body;
+            if (template) {
+                String random = Integer.toString(ThreadLocalRandom.current().nextInt(1, randomMax + 1));
+                String seq = Long.toString(SEQUENCE.incrementAndGet());
+                if (requestUri == null) {
+                    requestUri = URI.create(resolve(uri, random, seq));
+                }
+                requestBody = resolve(body, random, seq);
+            }
+
+            HttpRequest.Builder builder = HttpRequest.newBuilder()
+                    .uri(requestUri)
+                    .timeout(Duration.ofMillis(readTimeout));
+            if (requestBody == null) {
+                return builder.method(method, BodyPublishers.noBody()).build();
+            }
+            return builder.header("Content-Type", contentType)
+                    .method(method, BodyPublishers.ofString(requestBody))
+                    .build();
+        }
+
+        private static String resolve(String value, String random, String seq) {
+            return value == null ? null : value.replace("{random}", random).replace("{seq}", seq);
+        }
+
+        String name() {
+            return name;
+        }
+
+        String uri() {
+            return uri;
+        }
+
+        double weight() {
+            return weight;
+        }
+
+        String method() {
+            return method;
+        }
+    }
+}
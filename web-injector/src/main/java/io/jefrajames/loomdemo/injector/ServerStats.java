@@ -0,0 +1,173 @@
+package io.jefrajames.loomdemo.injector;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ *
+ * Samples the resources used by the server under test.
+ *
+ * The heap is polled from the /loom/heap, /loom/maxheap and /loom/memory
+ * endpoints of the servers. When the server runs on the same host, its RSS and
+ * CPU time are also read from /proc/&lt;pid&gt;/status and /proc/&lt;pid&gt;/stat (Linux
+ * only), the pid being given by /loom/pid.
+ *
+ * Each sample is taken by its own Virtual Thread, so that a saturated server
+ * never delays the monitor: it displays the last values received.
+ *
+ */
+class ServerStats {
+
+    // Clock ticks per second of /proc/<pid>/stat, 100 on almost all Linux systems
+    private static final double CLOCK_TICKS_PER_SECOND = 100.0;
+    private static final Pattern NON_HEAP = Pattern.compile("non heap=([^M]+)MB");
+    private static final Pattern VM_RSS = Pattern.compile("VmRSS:\\s+(\\d+) kB");
+
+    private final HttpClient client;
+    private final String baseUri;
+    private final int readTimeout;
+    private final AtomicBoolean polling = new AtomicBoolean();
+    private Path proc;
+
+    // Last values, -1 when unknown
+    private volatile long heap = -1;
+    private volatile long maxHeap = -1;
+    private volatile long nonHeap = -1;
+    private volatile long rss = -1;
+    private volatile double cores = -1;
+
+    private long lastCpuTicks = -1;
+    private long lastPoll;
+
+    // Averages over the run
+    private double rssSum;
+    private double coresSum;
+    private int samples;
+
+    ServerStats(String baseUri, int connectTimeout, int readTimeout) {
+        this.baseUri = baseUri;
+        this.readTimeout = readTimeout;
+        this.client = HttpClient.newBuilder().connectTimeout(Duration.ofMillis(connectTimeout)).build();
+        try {
+            String host = URI.create(baseUri).getHost();
+            long pid = parse(fetch("/pid"));
+            Path candidate = Path.of("/proc", String.valueOf(pid));
+            if (InetAddress.getByName(host).isLoopbackAddress() && Files.isDirectory(candidate)) {
+                proc = candidate;
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            System.err.printf("Unable to locate the server process from %s/pid: %s%n", baseUri, e);
+        }
+    }
+
+    private String fetch(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUri + path))
+                .timeout(Duration.ofMillis(readTimeout))
+                .build();
+        return client.send(request, BodyHandlers.ofString()).body();
+    }
+
+    // Numbers are formatted with grouping separators that depend on the locale of the server
+    private static long parse(String value) {
+        String digits = value.replaceAll("[^0-9]", "");
+        return digits.isEmpty() ? -1 : Long.parseLong(digits);
+    }
+
+    // Called by the monitor every period: starts a new sample unless the previous one is still running
+    void sample() {
+        if (polling.compareAndSet(false, true)) {
+            Thread.ofVirtual().name("server-stats").start(() -> {
+                try {
+                    poll();
+                } finally {
+                    polling.set(false);
+                }
+            });
+        }
+    }
+
+    private void poll() {
+        try {
+            heap = parse(fetch("/heap"));
+            maxHeap = parse(fetch("/maxheap"));
+            Matcher matcher = NON_HEAP.matcher(fetch("/memory"));
+            nonHeap = matcher.find() ? parse(matcher.group(1)) : -1;
+        } catch (IOException | InterruptedException e) {
+            heap = -1;
+        }
+        if (proc == null) {
+            return;
+        }
+        try {
+            Matcher matcher = VM_RSS.matcher(Files.readString(proc.resolve("status")));
+            rss = matcher.find() ? Long.parseLong(matcher.group(1)) / 1024 : -1;
+
+            // utime and stime are the 12th and 13th fields after the command name, which may contain spaces
+            String stat = Files.readString(proc.resolve("stat"));
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            long cpuTicks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+            long now = System.nanoTime();
+            if (lastCpuTicks >= 0) {
+                cores = (cpuTicks - lastCpuTicks) / CLOCK_TICKS_PER_SECOND / ((now - lastPoll) / 1e9);
+                rssSum += rss;
+                coresSum += cores;
+                samples++;
+            }
+            lastCpuTicks = cpuTicks;
+            lastPoll = now;
+        } catch (IOException | RuntimeException e) {
+            // the server is gone
+            rss = -1;
+            cores = -1;
+        }
+    }
+
+    String header() {
+        return "   Heap NonHeap     RSS  Cores  Req/s/MB Req/s/core";
+    }
+
+    // Empty columns to keep rows aligned
+    String blank() {
+        return " ".repeat(header().length());
+    }
+
+    // Last sampled values, efficiency being computed from the throughput of the injector
+    String columns(double perSecond) {
+        long memory = rss > 0 ? rss : heap;
+        return String.format("%7s %7s %7s %6s %9s %10s", value(heap), value(nonHeap), value(rss),
+                cores >= 0 ? String.format("%.2f", cores) : "-",
+                memory > 0 ? String.format("%,.1f", perSecond / memory) : "-",
+                cores > 0 ? String.format("%,.1f", perSecond / cores) : "-");
+    }
+
+    private static String value(long megaBytes) {
+        return megaBytes >= 0 ? String.format("%,d", megaBytes) : "-";
+    }
+
+    // Efficiency over the whole run
+    void print(double throughput) {
+        System.out.printf("Server max heap %s MB%n", value(maxHeap));
+        if (samples > 0) {
+            double averageRss = rssSum / samples;
+            double averageCores = coresSum / samples;
+            System.out.printf("Server average RSS %,.0f MB, %.2f cores: %,.1f Req/s per MB, %,.1f Req/s per core%n",
+                    averageRss, averageCores, throughput / averageRss,
+                    throughput / Math.max(1e-9, averageCores));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return baseUri + (proc != null ? " and " + proc : "");
+    }
+}
@@ -0,0 +1,63 @@
+package io.jefrajames.loomdemo.injector;
+
+import java.util.Arrays;
+
+/**
+ *
+ * Terminal chart of the throughput, one block character per monitor period.
+ *
+ * Bars are scaled from zero to the highest value displayed, so that a pause of
+ * the server, typically a GC, shows up as a visible dip.
+ *
+ */
+class Sparkline {
+
+    private static final char[] BARS = { ' ', '▁', '▂', '▃', '▄', '▅', '▆', '▇', '█' };
+
+    private final double[] values;
+    private int count;
+
+    // Keeps the last width values
+    Sparkline(int width) {
+        this.values = new double[Math.max(1, width)];
+    }
+
+    void add(double value) {
+        values[count++ % values.length] = value;
+    }
+
+    // Last values, oldest first, padded to the width
+    @Override
+    public String toString() {
+        int size = Math.min(count, values.length);
+        double[] ordered = new double[size];
+        for (int i = 0; i < size; i++) {
+            ordered[i] = values[(count - size + i) % values.length];
+        }
+        return String.format("%-" + values.length + "s", render(ordered));
+    }
+
+    static String render(double[] values) {
+        double max = Arrays.stream(values).max().orElse(0);
+        StringBuilder chart = new StringBuilder(values.length);
+        for (double value : values) {
+            int level = max > 0 ? (int) Math.round(value / max * (BARS.length - 1)) : 0;
+            chart.append(BARS[Math.max(0, Math.min(BARS.length - 1, level))]);
+        }
+        return chart.toString();
+    }
+
+    // At most width values, keeping the lowest of each group so that short dips remain visible
+    static String render(double[] values, int width) {
+        if (values.length <= width) {
+            return render(values);
+        }
+        double[] lowest = new double[width];
+        for (int i = 0; i < width; i++) {
+            int from = (int) ((long) i * values.length / width);
+            int to = (int) ((long) (i + 1) * values.length / width);
+            lowest[i] = Arrays.stream(values, from, to).min().orElse(0);
+        }
+        return render(lowest);
+    }
+}
@@ -0,0 +1,47 @@
+package io.jefrajames.loomdemo.injector;
+
+/**
+ *
+ * Detects when the throughput of the server has stabilized.
+ *
+ * The JIT of the server keeps compiling for a while under load, so warmup only
+ * ends when the throughput of the last successive windows stays within a
+ * relative tolerance of their mean.
+ *
+ */
+class SteadyState {
+
+    private final double[] throughputs;
+    private final double tolerance;
+    private int count;
+
+    SteadyState(int windows, double tolerance) {
+        this.throughputs = new double[Math.max(2, windows)];
+        this.tolerance = tolerance;
+    }
+
+    // Add the throughput of a window, returns true once steady
+    boolean add(double throughput) {
+        throughputs[count++ % throughputs.length] = throughput;
+        if (count < throughputs.length) {
+            return false;
+        }
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        for (double value : throughputs) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        return max > 0 && (max - min) / mean() <= tolerance;
+    }
+
+    // Mean throughput of the last windows
+    double mean() {
+        double sum = 0;
+        int size = Math.min(count, throughputs.length);
+        for (int i = 0; i < size; i++) {
+            sum += throughputs[i];
+        }
+        return sum / Math.max(1, size);
+    }
+}